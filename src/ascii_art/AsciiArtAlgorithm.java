@@ -1,55 +1,365 @@
 package ascii_art;
 
+import ascii_output.AsciiArt;
+import ascii_output.AsciiOutput;
+import ascii_output.AsciiRowOutput;
+import image.BoxFilter;
+import image.CellGrid;
 import image.Image;
 import image.PaddingImage;
-import image.SubImage;
+import image.ParallelRows;
 import image_char_matching.SubImgCharMatcher;
-import java.util.ArrayList;
+
+import java.awt.Rectangle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * AsciiArtAlgorithm class is responsible for converting an image into ASCII art representation.
  * It divides the input image into sub images, matches each sub-image to a corresponding character based on
  * brightness, and generates a 2D array of characters representing the ASCII art.
+ * Sub-image brightness is read from the brightness pyramid cached on the image, whose level for the cell
+ * size of a resolution is exactly the brightness grid of that resolution; after the first run on an image,
+ * a run at any resolution costs O(cells) rather than a pass over every pixel.
+ * Without padding, the image is instead divided into any number of columns of cells whose brightness is
+ * the fractional-area box average of the pixels under them (see BoxFilter), so the resolution need not be a
+ * power of two and no padding pixels are processed.
+ * Given a ForkJoinPool, the pyramid build and the character matching are split into row bands processed on
+ * the pool, each writing its own rows of the result, so the output is identical to a serial run.
+ * Rows can be pushed into an output as they are completed, so writing overlaps with the conversion.
+ * Several resolutions can be produced together: the brightness table cached on the image is built in one
+ * pass over the pixels and every resolution's grid is then derived from it in O(cells).
+ * Given a region of interest, only that region is converted: padding, the brightness tables and the cell
+ * grid all cover the region alone, so the work scales with its area rather than with that of the image.
  */
 public class AsciiArtAlgorithm {
+
+    /**
+     * Number of rows per pool thread matched in one chunk when pushing rows from a pool.
+     */
+    private static final int CHUNK_ROWS_PER_THREAD = 8;
+
+    private final Image image;
     private final PaddingImage paddingImage;
     private final int resolution;
     private final SubImgCharMatcher subImgCharMatcher;
+    private final ForkJoinPool pool;
+    private final boolean padded;
 
     /**
-     * Constructs an AsciiArtAlgorithm object with the specified parameters.
+     * Constructs an AsciiArtAlgorithm object with the specified parameters, running on the calling thread.
      *
      * @param image The input image to be converted into ASCII art.
      * @param resolution The resolution for creating sub-images.
      * @param subImgCharMatcher The character matcher for mapping image brightness to characters.
      */
     public AsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher) {
+        this(image, resolution, subImgCharMatcher, null);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object with the specified parameters, running on the given pool.
+     *
+     * @param image The input image to be converted into ASCII art.
+     * @param resolution The resolution for creating sub-images.
+     * @param subImgCharMatcher The character matcher for mapping image brightness to characters.
+     * @param pool The pool to process row bands on, or null to run on the calling thread.
+     */
+    public AsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher,
+                             ForkJoinPool pool) {
+        this(image, resolution, subImgCharMatcher, pool, true);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object with the specified parameters, with or without padding.
+     *
+     * @param image The input image to be converted into ASCII art.
+     * @param resolution The number of characters per row: with padding, a power of two no larger than the
+     *                   padded width; without, any number between 1 and the width of the image.
+     * @param subImgCharMatcher The character matcher for mapping image brightness to characters.
+     * @param pool The pool to process row bands on, or null to run on the calling thread.
+     * @param padded True to pad the image with white to power of two dimensions, false to box-average the
+     *               image as it is.
+     */
+    public AsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher,
+                             ForkJoinPool pool, boolean padded) {
+        this(image, resolution, subImgCharMatcher, pool, padded, null);
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object converting a region of interest of the image. The view of the
+     * region (see Image.crop) is made for this algorithm alone; a caller converting the same region several
+     * times should crop the image once and pass the view as the image, so that its tables are reused.
+     *
+     * @param image The input image to be converted into ASCII art.
+     * @param resolution The number of characters per row of the region (see the constructor without a
+     *                   region, with the region in place of the image).
+     * @param subImgCharMatcher The character matcher for mapping image brightness to characters.
+     * @param pool The pool to process row bands on, or null to run on the calling thread.
+     * @param padded True to pad the region with white to power of two dimensions, false to box-average the
+     *               region as it is.
+     * @param region The region to convert, in pixels of the image file, or null to convert the whole image.
+     * @throws IllegalArgumentException if the region is empty or does not lie inside the image.
+     */
+    public AsciiArtAlgorithm(Image image, int resolution, SubImgCharMatcher subImgCharMatcher,
+                             ForkJoinPool pool, boolean padded, Rectangle region) {
+        this.image = region == null ? image : image.crop(region);
         this.subImgCharMatcher = subImgCharMatcher;
         this.resolution = resolution;
-        this.paddingImage = new PaddingImage(image);
+        this.paddingImage = new PaddingImage(this.image);
+        this.pool = pool;
+        this.padded = padded;
+    }
+
+    /**
+     * Runs the ASCII art conversion algorithm and returns the generated ASCII art.
+     * The result has one row per row of cells and resolution columns, so wide and tall images get as many
+     * rows as their aspect ratio calls for. The charset may hold any characters.
+     *
+     * @return The ASCII art, stored row by row as ASCII codes when the charset is all ASCII and as chars
+     *         otherwise (see AsciiArt.toCharArray for a 2D character array).
+     * @throws IllegalArgumentException if the resolution does not fit the image: with padding, when it does
+     *                                  not split the padded image into square cells; without, when it
+     *                                  exceeds the width of the image.
+     */
+    public AsciiArt run() {
+        AsciiArtCollector collector = new AsciiArtCollector();
+        run(collector);
+        return collector.asciiArt;
     }
 
     /**
-     * Runs the ASCII art conversion algorithm and returns the generated ASCII art as a 2D character array.
+     * Runs the ASCII art conversion algorithm and writes the generated ASCII art to the given output.
+     * An output that implements AsciiRowOutput receives every row as soon as it is matched, so writing
+     * starts after the first rows rather than after the whole grid. With a pool, rows are produced in
+     * chunks: while one chunk is being written, the next is computed in row bands on the pool, so output
+     * overlaps with compute. Any other output receives the whole ASCII art at the end.
      *
-     * @return A 2D character array representing the ASCII art.
+     * @param asciiOutput The output the ASCII art is written to.
+     * @throws IllegalArgumentException if the resolution does not fit the image (see run()).
      */
-    public char[][] run() {
-        // Create sub-images from the padded image
-        ArrayList<SubImage> subImages = paddingImage.createSubImages(resolution);
+    public void run(AsciiOutput asciiOutput) {
+        run(AsciiRowOutput.of(asciiOutput));
+    }
 
-        // Determine the dimension of the charset
-        int dimension = paddingImage.getHeight() / subImages.get(0).getHeight();
+    /**
+     * Computes the brightness of every cell, the part of the conversion that depends on the image and the
+     * resolution but not on the charset. Runs that only change the charset can reuse the grid through
+     * run(CellGrid, AsciiOutput), which then only maps brightness to characters.
+     *
+     * @return The brightness grid, between 0 and 1, with one row per row of cells and resolution columns.
+     * @throws IllegalArgumentException if the resolution does not fit the image (see run()).
+     */
+    public CellGrid getBrightnessGrid() {
+        return getBrightnessGrid(resolution);
+    }
 
-        // Initialize the charset array
-        char[][] charset = new char[dimension][resolution];
+    /**
+     * Computes the brightness of every cell at the given resolution rather than the one the algorithm was
+     * constructed with.
+     *
+     * @param resolution The number of characters per row.
+     * @return The brightness grid, between 0 and 1, with one row per row of cells and resolution columns.
+     * @throws IllegalArgumentException if the resolution does not fit the image (see run()).
+     */
+    private CellGrid getBrightnessGrid(int resolution) {
+        if (padded) {
+            return paddedGrid(resolution);
+        }
+        return new BoxFilter(image, resolution).getBrightnessGrid(pool);
+    }
 
-        // Match each sub-image brightness to a character and populate the charset array
-        for (int i = 0; i < subImages.size(); i++) {
-            charset[i / resolution][i % dimension] = subImgCharMatcher.getCharByImageBrightness(
-                    subImages.get(i).getBrightness());
+    /**
+     * Runs the ASCII art conversion algorithm at several resolutions in one go, ignoring the resolution the
+     * algorithm was constructed with. The pixels are read only once, to build the brightness table cached on
+     * the image: with padding, the brightness pyramid, whose levels are the grids of successively coarser
+     * resolutions, each reduced from the one below; without, the summed-area table, from which each grid is
+     * box-averaged in O(cells). Producing resolutions 32 to 256 thus costs little more than producing 256.
+     * A TiledImage is the exception without padding: it never holds its whole luminance plane, so it builds
+     * no summed-area table and every resolution reads the pixels again from its tiles (cells of different
+     * resolutions do not nest, so a finer grid cannot be reduced into a coarser one exactly).
+     *
+     * @param resolutions The numbers of characters per row, each fitting the image as in run().
+     * @return The ASCII art at every resolution, in the order the resolutions were given.
+     * @throws IllegalArgumentException if a resolution does not fit the image (see run()).
+     */
+    public AsciiArt[] runResolutions(int... resolutions) {
+        AsciiArt[] arts = new AsciiArt[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            CellGrid grid = getBrightnessGrid(resolutions[i]);
+            AsciiArtCollector collector = new AsciiArtCollector();
+            emitRows(collector, grid.getRows(), grid.getCols(), grid::get);
+            arts[i] = collector.asciiArt;
         }
+        return arts;
+    }
 
-        return charset;
+    /**
+     * Maps a brightness grid computed by getBrightnessGrid() to characters with the current charset and
+     * writes the ASCII art to the given output, as run(AsciiOutput) would. This costs one lookup per cell.
+     *
+     * @param brightnessGrid The brightness of every cell.
+     * @param asciiOutput    The output the ASCII art is written to.
+     */
+    public void run(CellGrid brightnessGrid, AsciiOutput asciiOutput) {
+        emitRows(AsciiRowOutput.of(asciiOutput), brightnessGrid.getRows(), brightnessGrid.getCols(),
+                brightnessGrid::get);
+    }
+
+    /**
+     * Runs the ASCII art conversion algorithm, pushing the rows into the given row output.
+     *
+     * @param rowOutput The output the rows are pushed into.
+     */
+    private void run(AsciiRowOutput rowOutput) {
+        if (padded) {
+            CellGrid grid = paddedGrid(resolution);
+            emitRows(rowOutput, grid.getRows(), grid.getCols(), grid::get);
+        } else {
+            BoxFilter filter = new BoxFilter(image, resolution);
+            emitRows(rowOutput, filter.getRows(), filter.getCols(), filter::getBrightness);
+        }
+    }
+
+    /**
+     * Matches the brightness of every cell to a character and pushes the rows, in order, into the output.
+     * Without a pool every row is pushed as soon as it is matched. With a pool the rows are matched in
+     * chunks of CHUNK_ROWS_PER_THREAD rows per thread; each chunk is matched in row bands on the pool while
+     * the previous one is being written, and every cell is computed exactly once. The output is ended after
+     * the last row, or aborted if a row cannot be produced.
+     *
+     * @param rowOutput  The output the rows are pushed into.
+     * @param rows       The number of rows of cells.
+     * @param cols       The number of cells in a row.
+     * @param brightness The brightness of every cell.
+     */
+    private void emitRows(AsciiRowOutput rowOutput, int rows, int cols, CellBrightness brightness) {
+        boolean ascii = subImgCharMatcher.isAscii();
+        rowOutput.begin(rows, cols);
+        try {
+            if (pool == null) {
+                RowBuffer line = new RowBuffer(ascii, cols);
+                for (int row = 0; row < rows; row++) {
+                    matchRows(brightness, cols, row, row + 1, line, row);
+                    line.emit(rowOutput, 0);
+                }
+            } else {
+                int chunkRows = pool.getParallelism() * CHUNK_ROWS_PER_THREAD;
+                RowBuffer[] chunks = {new RowBuffer(ascii, chunkRows * cols),
+                        new RowBuffer(ascii, chunkRows * cols)};
+                ForkJoinTask<?> pending = submitChunk(brightness, cols, 0, Math.min(chunkRows, rows),
+                        chunks[0]);
+                for (int start = 0, chunk = 0; start < rows; start += chunkRows, chunk ^= 1) {
+                    pending.join();
+                    int end = Math.min(start + chunkRows, rows);
+                    if (end < rows) {
+                        pending = submitChunk(brightness, cols, end, Math.min(end + chunkRows, rows),
+                                chunks[chunk ^ 1]);
+                    }
+                    for (int row = start; row < end; row++) {
+                        chunks[chunk].emit(rowOutput, (row - start) * cols);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            rowOutput.abort();
+            throw e;
+        }
+        rowOutput.end();
+    }
+
+    /**
+     * Submits a chunk of rows to be matched in row bands on the pool.
+     *
+     * @param brightness The brightness of every cell.
+     * @param cols       The number of cells in a row.
+     * @param from       The first row of the chunk.
+     * @param to         The row after the last row of the chunk.
+     * @param codes      The buffer receiving the characters of the chunk, row by row.
+     * @return The task matching the chunk.
+     */
+    private ForkJoinTask<?> submitChunk(CellBrightness brightness, int cols, int from, int to,
+                                        RowBuffer codes) {
+        return pool.submit(() -> ParallelRows.forEachBand(pool, to - from,
+                (bandFrom, bandTo) -> matchRows(brightness, cols, from + bandFrom, from + bandTo, codes,
+                        from)));
+    }
+
+    /**
+     * Matches the brightness of the cells of a range of rows to characters.
+     *
+     * @param brightness The brightness of every cell.
+     * @param cols       The number of cells in a row.
+     * @param from       The first row of the range.
+     * @param to         The row after the last row of the range.
+     * @param codes      The buffer receiving the characters, row by row.
+     * @param firstRow   The row whose characters start the buffer.
+     */
+    private void matchRows(CellBrightness brightness, int cols, int from, int to, RowBuffer codes,
+                           int firstRow) {
+        for (int row = from; row < to; row++) {
+            int offset = (row - firstRow) * cols;
+            for (int col = 0; col < cols; col++) {
+                codes.set(offset + col, subImgCharMatcher.getCharByImageBrightness(brightness.get(row, col)));
+            }
+        }
+    }
+
+    /**
+     * Reads the brightness of every cell of the padded image from the matching pyramid level.
+     *
+     * @param resolution The number of characters per row.
+     * @return The brightness grid of the padded image.
+     * @throws IllegalArgumentException if the resolution does not split the padded image into square cells.
+     */
+    private CellGrid paddedGrid(int resolution) {
+        int cellSize = paddingImage.getWidth() / resolution;
+        if (cellSize * resolution != paddingImage.getWidth()) {
+            throw new IllegalArgumentException("Resolution " + resolution
+                    + " does not divide the padded width " + paddingImage.getWidth());
+        }
+        return image.getLuminancePyramid(pool).getBrightnessGrid(cellSize);
+    }
+
+    /**
+     * The brightness of the cells of a grid.
+     */
+    private interface CellBrightness {
+
+        /**
+         * Gets the brightness of a cell.
+         *
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @return The brightness of the cell, between 0 and 1.
+         */
+        double get(int row, int col);
+    }
+
+    /**
+     * A row output collecting the rows into an AsciiArt.
+     */
+    private static class AsciiArtCollector implements AsciiRowOutput {
+        private AsciiArt asciiArt;
+        private int nextRow;
+
+        @Override
+        public void begin(int rows, int cols) {
+            asciiArt = new AsciiArt(rows, cols);
+        }
+
+        @Override
+        public void row(byte[] codes, int offset) {
+            asciiArt.setRow(nextRow++, codes, offset);
+        }
+
+        @Override
+        public void row(char[] chars, int offset) {
+            asciiArt.setRow(nextRow++, chars, offset);
+        }
+
+        @Override
+        public void end() {
+        }
     }
 }
@@ -0,0 +1,107 @@
+package ascii_art;
+
+import image.CellGrid;
+import image.Image;
+import image.LuminanceMode;
+
+import java.awt.Rectangle;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the brightness grid of the last run, so that runs after a charset edit only re-map it to characters.
+ * The grid is keyed explicitly on everything it depends on: the identity of the image converted (the view
+ * of the cropped region when there is one), the cropped region, the resolution, the padding and the
+ * luminance kernel and off-heap setting of the image. A request with any of them changed computes the grid
+ * again. The grid of an image may point into tables the image frees when it is released, so the owner must
+ * also clear the cache whenever it releases the image.
+ */
+class BrightnessGridCache {
+
+    /**
+     * The cached grid, or null if there is none.
+     */
+    private CellGrid grid;
+
+    /**
+     * The image the grid was computed from.
+     */
+    private Image image;
+
+    /**
+     * The region of the image the grid was computed for, or null for the whole image.
+     */
+    private Rectangle crop;
+
+    /**
+     * The resolution the grid was computed at.
+     */
+    private int resolution;
+
+    /**
+     * Whether the grid was computed for the padded image.
+     */
+    private boolean padded;
+
+    /**
+     * The luminance kernel the image had when the grid was computed.
+     */
+    private LuminanceMode luminanceMode;
+
+    /**
+     * The off-heap setting the image had when the grid was computed.
+     */
+    private boolean offHeap;
+
+    /**
+     * Number of grids computed so far.
+     */
+    private long misses;
+
+    /**
+     * Retrieves the brightness grid for the given key, computing it if the cached grid was computed for
+     * another key.
+     *
+     * @param image      The image converted.
+     * @param crop       The region of the image converted, or null for the whole image.
+     * @param resolution The number of characters per row.
+     * @param padded     Whether the image is padded to power of two dimensions.
+     * @param compute    Computes the grid for this key.
+     * @return The brightness grid for the key.
+     */
+    CellGrid get(Image image, Rectangle crop, int resolution, boolean padded, Supplier<CellGrid> compute) {
+        if (grid == null || this.image != image || !Objects.equals(this.crop, crop)
+                || this.resolution != resolution || this.padded != padded
+                || luminanceMode != image.getLuminanceMode() || offHeap != image.isOffHeap()) {
+            grid = null;
+            CellGrid computed = compute.get();
+            this.image = image;
+            this.crop = crop == null ? null : new Rectangle(crop);
+            this.resolution = resolution;
+            this.padded = padded;
+            this.luminanceMode = image.getLuminanceMode();
+            this.offHeap = image.isOffHeap();
+            grid = computed;
+            misses++;
+        }
+        return grid;
+    }
+
+    /**
+     * Gets the number of grids computed so far, counting every request that did not reuse the cached grid.
+     *
+     * @return The number of computed grids.
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Drops the cached grid, and the reference to its image.
+     */
+    void clear() {
+        grid = null;
+        image = null;
+        crop = null;
+    }
+}
@@ -0,0 +1,60 @@
+package ascii_art;
+
+import ascii_output.AsciiRowOutput;
+
+/**
+ * A buffer of matched characters, row by row, handed to a row output in slices. The characters are kept as
+ * ASCII codes when the charset is all ASCII, and as chars otherwise, so the buffer never has to reject a
+ * character the charset holds.
+ */
+final class RowBuffer {
+
+    /**
+     * ASCII code of every character, or null when the buffer holds chars.
+     */
+    private final byte[] codes;
+
+    /**
+     * Every character, or null when the buffer holds ASCII codes.
+     */
+    private final char[] chars;
+
+    /**
+     * Constructs a RowBuffer of the given length.
+     *
+     * @param ascii  True if every character that will be stored is ASCII.
+     * @param length The number of characters the buffer holds.
+     */
+    RowBuffer(boolean ascii, int length) {
+        this.codes = ascii ? new byte[length] : null;
+        this.chars = ascii ? null : new char[length];
+    }
+
+    /**
+     * Stores a character.
+     *
+     * @param index The index of the character in the buffer.
+     * @param c     The character, which must be ASCII if the buffer holds ASCII codes.
+     */
+    void set(int index, char c) {
+        if (codes != null) {
+            codes[index] = (byte) c;
+        } else {
+            chars[index] = c;
+        }
+    }
+
+    /**
+     * Pushes the row starting at the given index into a row output.
+     *
+     * @param rowOutput The output the row is pushed into.
+     * @param offset    The index in the buffer of the first character of the row.
+     */
+    void emit(AsciiRowOutput rowOutput, int offset) {
+        if (codes != null) {
+            rowOutput.row(codes, offset);
+        } else {
+            rowOutput.row(chars, offset);
+        }
+    }
+}
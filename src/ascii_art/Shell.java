@@ -1,16 +1,23 @@
 package ascii_art;
 
+import ascii_output.AsciiArt;
 import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
 import errors.*;
+import image.CellGrid;
+import image.CroppedImage;
 import image.Image;
+import image.ImageCache;
+import image.LuminanceMode;
 import image.PaddingImage;
 import image_char_matching.SubImgCharMatcher;
 
+import java.awt.Rectangle;
 import java.io.IOException;
 import java.lang.module.ResolutionException;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The Shell class provides a command-line interface for interacting with the ASCII Art generation system.
@@ -20,10 +27,23 @@ import java.util.TreeSet;
  * "chars": Displays the current character pool.
  * "add": Adds characters to the character pool.
  * "remove": Removes characters from the character pool.
- * "res": Changes the resolution of the ASCII art.
+ * "res": Changes the resolution of the ASCII art: doubles it, halves it or sets it to a given number.
  * "asciiArt": Runs the ASCII art generation algorithm.
+ * "multires": Runs the ASCII art generation algorithm at several resolutions, from a single pass over the
+ * image unless it is tiled and unpadded.
+ * "stream": Runs the ASCII art generation algorithm on an image file band by band, without loading it, always
+ * with padding.
  * "output": Changes the output method for displaying ASCII art.
  * "image": Changes the input image file for ASCII art generation.
+ * "luminance": Selects the exact or fast luminance kernel used for brightness calculations.
+ * "subsample": Turns decoding images with subsampling matched to the resolution on or off.
+ * "offheap": Turns keeping the luminance tables and brightness pyramid off the Java heap on or off.
+ * "padding": Turns padding the image with white to power of two dimensions on or off. Without padding (the
+ * default), any resolution up to the image width is accepted and cells are box-averaged over the image.
+ * "crop": Restricts the conversion to a region of the image, given as x, y, width and height in pixels of
+ * the image file, or turns the restriction off.
+ * "threads": Sets the number of threads the ASCII art generation algorithm runs on.
+ * "cache": Reports the hits and misses of the loaded image cache, or sets its budget in megabytes.
  * The Shell class also handles various exceptions for incorrect inputs or operations.
  * It provides feedback messages for errors such as incorrect commands, invalid format, or file loading
  * issues.
@@ -40,6 +60,16 @@ public class Shell {
      */
     private final static String DEFAULT_IMAGE_PATH = "cat.jpeg";
 
+    /**
+     * The default memory budget of the loaded image cache, in megabytes.
+     */
+    private final static int DEFAULT_CACHE_BUDGET_MB = 256;
+
+    /**
+     * Number of bytes in a megabyte.
+     */
+    private final static long BYTES_PER_MB = 1024 * 1024;
+
     /**
      * The default output method for displaying ASCII art.
      */
@@ -85,6 +115,16 @@ public class Shell {
      */
     private final static String RUN_ALGORITHM = "asciiArt";
 
+    /**
+     * Command keyword for running the ASCII art generation algorithm at several resolutions.
+     */
+    private final static String RUN_MULTI_RESOLUTION = "multires";
+
+    /**
+     * Command keyword for running the ASCII art generation algorithm band by band on an image file.
+     */
+    private final static String RUN_STREAMING_ALGORITHM = "stream";
+
     /**
      * Command keyword for changing the output method of ASCII art display.
      */
@@ -95,6 +135,71 @@ public class Shell {
      */
     private final static String CHANGE_IMAGE = "image";
 
+    /**
+     * Command keyword for selecting the luminance kernel used for brightness calculations.
+     */
+    private final static String CHANGE_LUMINANCE = "luminance";
+
+    /**
+     * Luminance kernel option selecting the double precision kernel.
+     */
+    private final static String EXACT_LUMINANCE = "exact";
+
+    /**
+     * Luminance kernel option selecting the fixed-point lookup table kernel.
+     */
+    private final static String FAST_LUMINANCE = "fast";
+
+    /**
+     * Command keyword for turning decode-time subsampling on or off.
+     */
+    private final static String CHANGE_SUBSAMPLING = "subsample";
+
+    /**
+     * Command keyword for turning off-heap luminance tables on or off.
+     */
+    private final static String CHANGE_OFF_HEAP = "offheap";
+
+    /**
+     * Command keyword for turning padding the image to power of two dimensions on or off.
+     */
+    private final static String CHANGE_PADDING = "padding";
+
+    /**
+     * Command keyword for restricting the conversion to a region of the image.
+     */
+    private final static String CROP = "crop";
+
+    /**
+     * Number of arguments of the crop command setting a region: x, y, width and height.
+     */
+    private final static int CROP_ARGUMENTS = 4;
+
+    /**
+     * Command keyword for setting the number of threads the algorithm runs on.
+     */
+    private final static String CHANGE_THREADS = "threads";
+
+    /**
+     * Largest number of threads, which is the largest parallelism a ForkJoinPool supports.
+     */
+    private final static int MAX_THREADS = 0x7fff;
+
+    /**
+     * Command keyword for reporting the image cache statistics or setting its budget.
+     */
+    private final static String IMAGE_CACHE = "cache";
+
+    /**
+     * Option turning a setting on.
+     */
+    private final static String ON_OPTION = "on";
+
+    /**
+     * Option turning a setting off.
+     */
+    private final static String OFF_OPTION = "off";
+
     /**
      * Output method for displaying ASCII art in the console.
      */
@@ -110,6 +215,11 @@ public class Shell {
      */
     private final static String HTML_FILENAME = "out.html";
 
+    /**
+     * Filename pattern for HTML output at one of several resolutions.
+     */
+    private final static String HTML_RESOLUTION_FILENAME = "out_%d.html";
+
     /**
      * Default font for HTML output.
      */
@@ -160,6 +270,53 @@ public class Shell {
      */
     private final static String RESOLUTION_ERROR_MSG = "Did not change resolution due to incorrect format.";
 
+    /**
+     * Error message for failure to change luminance kernel due to incorrect format.
+     */
+    private final static String LUMINANCE_ERROR_MSG = "Did not change luminance mode due to incorrect " +
+            "format.";
+
+    /**
+     * Error message for failure to change subsampling due to incorrect format.
+     */
+    private final static String SUBSAMPLING_ERROR_MSG = "Did not change subsampling due to incorrect format.";
+
+    /**
+     * Error message for failure to change off-heap tables due to incorrect format.
+     */
+    private final static String OFF_HEAP_ERROR_MSG =
+            "Did not change off-heap tables due to incorrect format.";
+
+    /**
+     * Error message for failure to change padding due to incorrect format.
+     */
+    private final static String PADDING_ERROR_MSG = "Did not change padding due to incorrect format.";
+
+    /**
+     * Error message for failure to crop due to incorrect format.
+     */
+    private final static String CROP_ERROR_MSG = "Did not crop due to incorrect format.";
+
+    /**
+     * Error message for failure to crop due to a region outside the image.
+     */
+    private final static String CROP_BOUNDARIES_ERROR_MSG = "Did not crop due to exceeding boundaries.";
+
+    /**
+     * Error message for failure to change the number of threads due to incorrect format.
+     */
+    private final static String THREADS_ERROR_MSG = "Did not change threads due to incorrect format.";
+
+    /**
+     * Error message for failure to change the image cache budget due to incorrect format.
+     */
+    private final static String CACHE_ERROR_MSG = "Did not change cache budget due to incorrect format.";
+
+    /**
+     * Message reporting the image cache statistics.
+     */
+    private final static String CACHE_STATS_MSG = "Image cache: %d hits, %d misses, %d images, %d of %d MB.";
+
     /**
      * Error message for failure to execute due to incorrect command.
      */
@@ -197,9 +354,41 @@ public class Shell {
     private static final int END_ASCII = 126;
 
     private AsciiOutput asciiOutput;
+
+    /**
+     * Whether the current output writes HTML files, in which case each resolution of a multires run is
+     * written to a file of its own.
+     */
+    private boolean htmlOutput;
+    private String imagePath;
+    private boolean subsampling;
+    private boolean offHeap;
+    private boolean padded;
+    private ForkJoinPool pool;
+
+    /**
+     * Region of the current image the conversion is restricted to, in pixels of the image file, or null to
+     * convert the whole image.
+     */
+    private Rectangle crop;
+
+    /**
+     * The part of the current image that is converted: the view of the cropped region, kept while the image
+     * and the crop are unchanged so that the tables it builds are reused between runs, or the image itself.
+     */
+    private Image croppedImage;
+
+    /**
+     * Brightness of every cell of the current image from the last run, kept so that runs after a charset
+     * edit only re-map it to characters. Keyed on the image, crop, resolution, padding and kernel it was
+     * computed for, and cleared whenever the tables of the current image are released.
+     */
+    private final BrightnessGridCache gridCache = new BrightnessGridCache();
     private Image image;
+    private final ImageCache imageCache;
     private PaddingImage padding;
     private int resolution;
+    private LuminanceMode luminanceMode;
     private final SubImgCharMatcher subImgCharMatcher;
     private final TreeSet<Character> charset;
 
@@ -214,6 +403,8 @@ public class Shell {
             charset.add(c);
         }
         resolution = DEFAULT_RESOLUTION;
+        luminanceMode = LuminanceMode.EXACT;
+        imageCache = new ImageCache(DEFAULT_CACHE_BUDGET_MB * BYTES_PER_MB);
         subImgCharMatcher = new SubImgCharMatcher(DEFAULT_CHARSET);
         asciiOutput = DEFAULT_OUTPUT;
         try {
@@ -255,12 +446,39 @@ public class Shell {
                     case CHANGE_OUTPUT:
                         changeOutput(line);
                         break;
+                    case CHANGE_LUMINANCE:
+                        changeLuminanceMode(line);
+                        break;
+                    case CHANGE_SUBSAMPLING:
+                        changeSubsampling(line);
+                        break;
+                    case CHANGE_OFF_HEAP:
+                        changeOffHeap(line);
+                        break;
+                    case CHANGE_PADDING:
+                        changePadding(line);
+                        break;
+                    case CROP:
+                        changeCrop(line);
+                        break;
+                    case CHANGE_THREADS:
+                        changeThreads(line);
+                        break;
+                    case IMAGE_CACHE:
+                        imageCache(line);
+                        break;
                     case RUN_ALGORITHM:
                         if (line.length != 1) {
                             throw new GeneralException(GENERAL_ERROR_MSG);
                         }
                         runAlgorithm();
                         break;
+                    case RUN_MULTI_RESOLUTION:
+                        runMultiResolution(line);
+                        break;
+                    case RUN_STREAMING_ALGORITHM:
+                        runStreamingAlgorithm(line);
+                        break;
                     default:
                         throw new GeneralException(GENERAL_ERROR_MSG);
                 }
@@ -388,7 +606,7 @@ public class Shell {
     }
 
     /**
-     * Changes the resolution of the ASCII art.
+     * Changes the resolution of the ASCII art: "up" doubles it, "down" halves it and a number sets it.
      *
      * @param input the user input indicating the change in resolution
      * @throws ResolutionException if the input format is incorrect or if the new resolution exceeds
@@ -404,11 +622,15 @@ public class Shell {
         } else if (input[1].equals(RESOLUTION_DOWN_COMMAND)) {
             newResolution = resolution / 2;
         } else {
-            throw new ResolutionException(RESOLUTION_ERROR_MSG);
+            try {
+                newResolution = Integer.parseInt(input[1]);
+            }
+            catch (NumberFormatException e) {
+                throw new ResolutionException(RESOLUTION_ERROR_MSG);
+            }
         }
 
-        int maxWidthHeight = Math.max(1, padding.getWidth() / padding.getHeight());
-        if (newResolution <= padding.getWidth() && newResolution >= maxWidthHeight) {
+        if (fitsImage(newResolution)) {
             resolution = newResolution;
         } else {
             throw new ResolutionException(RES_BOUNDARIES_ERROR_MSG);
@@ -426,15 +648,260 @@ public class Shell {
         if (input.length != 2) {
             throw new ImageException(IMAGE_ERROR_MSG);
         }
+        loadImage(input[1]);
+    }
+
+    /**
+     * Loads the given image file as the current image, through the image cache. With subsampling on, the
+     * file is decoded only at the detail the current resolution needs. A crop is kept only when the same
+     * file is loaded again. The image it replaces stays cached, but its off-heap tables are freed at once.
+     *
+     * @param path the path to the image file
+     * @throws ImageException if there is a problem with loading the image file
+     */
+    private void loadImage(String path) throws ImageException {
+        loadImage(path, resolution);
+    }
+
+    /**
+     * Loads the given image file as the current image, decoded with subsampling on for the given resolution
+     * rather than the current one. When the same file is loaded again with a crop, the subsampling factor is
+     * chosen by the width of the cropped region, which is what the resolution applies to.
+     *
+     * @param path             the path to the image file
+     * @param decodeResolution the resolution the image is decoded for when subsampling is on
+     * @throws ImageException if there is a problem with loading the image file
+     */
+    private void loadImage(String path, int decodeResolution) throws ImageException {
+        int regionWidth = crop != null && path.equals(imagePath) ? crop.width : 0;
         try {
-            image = new Image(input[1]);
-            padding = new PaddingImage(image);
+            Image loaded = imageCache.load(path, subsampling ? decodeResolution : 0, regionWidth);
+            if (image != null && loaded != image) {
+                image.releaseOffHeap();
+            }
+            Image previous = image;
+            image = loaded;
+            image.setLuminanceMode(luminanceMode);
+            image.setOffHeap(offHeap);
+            if (!path.equals(imagePath)) {
+                crop = null;
+            }
+            if (loaded != previous || crop == null) {
+                setCroppedImage(crop == null ? image : image.crop(crop));
+            }
+            imagePath = path;
+            gridCache.clear();
         }
         catch (IOException e) {
             throw new ImageException(IMAGE_ERROR_MSG);
         }
     }
 
+    /**
+     * Turns keeping the luminance tables and brightness pyramid off the Java heap on or off, for the current
+     * image and for images loaded later.
+     *
+     * @param input the user input indicating whether off-heap tables are on or off
+     * @throws GeneralException if the input format is incorrect for changing off-heap tables
+     */
+    private void changeOffHeap(String[] input) throws GeneralException {
+        if (input.length != 2) {
+            throw new GeneralException(OFF_HEAP_ERROR_MSG);
+        }
+        if (input[1].equals(ON_OPTION)) {
+            offHeap = true;
+        } else if (input[1].equals(OFF_OPTION)) {
+            offHeap = false;
+        } else {
+            throw new GeneralException(OFF_HEAP_ERROR_MSG);
+        }
+        if (image != null) {
+            image.setOffHeap(offHeap);
+            croppedImage.setOffHeap(offHeap);
+            gridCache.clear();
+        }
+    }
+
+    /**
+     * Makes the given image the part of the current image that is converted, releasing the tables of the
+     * view of the previous cropped region, which is no longer used.
+     *
+     * @param converted the current image or a view of its cropped region
+     */
+    private void setCroppedImage(Image converted) {
+        if (croppedImage instanceof CroppedImage && croppedImage != converted) {
+            croppedImage.release();
+        }
+        croppedImage = converted;
+        padding = new PaddingImage(converted);
+    }
+
+    /**
+     * Restricts the conversion to a region of the current image, given as x, y, width and height in pixels of
+     * the image file, or with "off" converts the whole image again. The region is padded and divided into
+     * cells on its own, so the current resolution applies to the region.
+     *
+     * @param input the user input holding the region or "off"
+     * @throws GeneralException if the input format is incorrect or the region does not lie inside the image
+     */
+    private void changeCrop(String[] input) throws GeneralException {
+        Rectangle newCrop;
+        Image view;
+        if (input.length == 2 && input[1].equals(OFF_OPTION)) {
+            newCrop = null;
+            view = image;
+        } else if (input.length == CROP_ARGUMENTS + 1) {
+            try {
+                newCrop = new Rectangle(Integer.parseInt(input[1]), Integer.parseInt(input[2]),
+                        Integer.parseInt(input[3]), Integer.parseInt(input[4]));
+            }
+            catch (NumberFormatException e) {
+                throw new GeneralException(CROP_ERROR_MSG);
+            }
+            try {
+                view = image.crop(newCrop);
+            }
+            catch (IllegalArgumentException e) {
+                throw new GeneralException(CROP_BOUNDARIES_ERROR_MSG);
+            }
+        } else {
+            throw new GeneralException(CROP_ERROR_MSG);
+        }
+        crop = newCrop;
+        setCroppedImage(view);
+        gridCache.clear();
+    }
+
+    /**
+     * Checks whether a resolution fits the current image, or its cropped region, once it is decoded for that
+     * resolution: besides fitting the image file, the resolution must not exceed the decoded width.
+     *
+     * @param newResolution the resolution to check
+     * @return true if the decoded image can be converted at the given resolution
+     */
+    private boolean fitsDecodedImage(int newResolution) {
+        int decodedWidth = padded ? padding.getWidth() : croppedImage.getWidth();
+        return fitsImage(newResolution) && newResolution <= decodedWidth;
+    }
+
+    /**
+     * Checks whether a resolution fits the current image, or its cropped region. With padding, the resolution
+     * must be a power of two between the aspect ratio of the padded image and its width; without, any number
+     * between 1 and the width of the image. A subsampled image stands for an image larger by the subsampling
+     * factor.
+     *
+     * @param newResolution the resolution to check
+     * @return true if the image can be converted at the given resolution
+     */
+    private boolean fitsImage(int newResolution) {
+        if (!padded) {
+            return newResolution >= 1 && newResolution <= croppedImage.getWidth() * image.getSubsampling();
+        }
+        int fullWidth = padding.getWidth() * image.getSubsampling();
+        int maxWidthHeight = Math.max(1, padding.getWidth() / padding.getHeight());
+        return Integer.bitCount(newResolution) == 1 && newResolution <= fullWidth
+                && newResolution >= maxWidthHeight;
+    }
+
+    /**
+     * Turns padding the image with white to power of two dimensions on or off. Padding is kept for
+     * compatibility with the original output; it only accepts powers of two as resolutions, so turning it on
+     * rounds the current resolution down to one.
+     *
+     * @param input the user input indicating whether padding is on or off
+     * @throws GeneralException if the input format is incorrect for changing padding
+     */
+    private void changePadding(String[] input) throws GeneralException {
+        if (input.length != 2) {
+            throw new GeneralException(PADDING_ERROR_MSG);
+        }
+        if (input[1].equals(ON_OPTION)) {
+            padded = true;
+            int newResolution = Integer.highestOneBit(resolution);
+            if (newResolution != resolution && fitsImage(newResolution)) {
+                resolution = newResolution;
+                System.out.println(CHANGE_RES_MSG.replace("%d", String.valueOf(resolution)));
+            }
+        } else if (input[1].equals(OFF_OPTION)) {
+            padded = false;
+        } else {
+            throw new GeneralException(PADDING_ERROR_MSG);
+        }
+    }
+
+    /**
+     * Sets the number of threads the ASCII art generation algorithm runs on. With more than one thread the
+     * cell grid is processed in row bands on a ForkJoinPool of that size; with one, on the shell thread.
+     *
+     * @param input the user input holding the number of threads
+     * @throws GeneralException if the input format is incorrect or the number of threads is out of range
+     */
+    private void changeThreads(String[] input) throws GeneralException {
+        if (input.length != 2) {
+            throw new GeneralException(THREADS_ERROR_MSG);
+        }
+        int threads;
+        try {
+            threads = Integer.parseInt(input[1]);
+        }
+        catch (NumberFormatException e) {
+            throw new GeneralException(THREADS_ERROR_MSG);
+        }
+        if (threads < 1 || threads > MAX_THREADS) {
+            throw new GeneralException(THREADS_ERROR_MSG);
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
+    /**
+     * Reports the hits, misses and memory use of the image cache, or sets its budget in megabytes.
+     *
+     * @param input the user input, optionally followed by the new budget in megabytes
+     * @throws GeneralException if the input format is incorrect for changing the budget
+     */
+    private void imageCache(String[] input) throws GeneralException {
+        if (input.length == 2) {
+            try {
+                long budget = Long.parseLong(input[1]);
+                if (budget < 0) {
+                    throw new GeneralException(CACHE_ERROR_MSG);
+                }
+                imageCache.setBudget(budget * BYTES_PER_MB);
+            }
+            catch (NumberFormatException e) {
+                throw new GeneralException(CACHE_ERROR_MSG);
+            }
+        } else if (input.length != 1) {
+            throw new GeneralException(CACHE_ERROR_MSG);
+        }
+        System.out.println(String.format(CACHE_STATS_MSG, imageCache.getHits(), imageCache.getMisses(),
+                imageCache.size(), imageCache.getMemoryFootprint() / BYTES_PER_MB,
+                imageCache.getBudget() / BYTES_PER_MB));
+    }
+
+    /**
+     * Turns decode-time subsampling on or off. The current image is decoded again at the matching detail
+     * before the next run of the algorithm.
+     *
+     * @param input the user input indicating whether subsampling is on or off
+     * @throws GeneralException if the input format is incorrect for changing subsampling
+     */
+    private void changeSubsampling(String[] input) throws GeneralException {
+        if (input.length != 2) {
+            throw new GeneralException(SUBSAMPLING_ERROR_MSG);
+        }
+        if (input[1].equals(ON_OPTION)) {
+            subsampling = true;
+        } else if (input[1].equals(OFF_OPTION)) {
+            subsampling = false;
+        } else {
+            throw new GeneralException(SUBSAMPLING_ERROR_MSG);
+        }
+    }
+
     /**
      * Changes the output method for displaying ASCII art.
      *
@@ -447,24 +914,160 @@ public class Shell {
         }
         if (input[1].equals(CONSOLE_OUTPUT)) {
             asciiOutput = new ConsoleAsciiOutput();
+            htmlOutput = false;
         } else if (input[1].equals(HTML_OUTPUT)) {
             asciiOutput = new HtmlAsciiOutput(HTML_FILENAME, HTML_FONT);
+            htmlOutput = true;
         } else {
             throw new OutputException(OUTPUT_ERROR_MSG);
         }
     }
 
     /**
-     * Runs the ASCII art generation algorithm.
+     * Selects the luminance kernel used for brightness calculations, for the current image and for images
+     * loaded later.
+     *
+     * @param input the user input indicating the luminance kernel
+     * @throws GeneralException if the input format is incorrect for changing the luminance kernel
+     */
+    private void changeLuminanceMode(String[] input) throws GeneralException {
+        if (input.length != 2) {
+            throw new GeneralException(LUMINANCE_ERROR_MSG);
+        }
+        if (input[1].equals(EXACT_LUMINANCE)) {
+            luminanceMode = LuminanceMode.EXACT;
+        } else if (input[1].equals(FAST_LUMINANCE)) {
+            luminanceMode = LuminanceMode.FAST;
+        } else {
+            throw new GeneralException(LUMINANCE_ERROR_MSG);
+        }
+        if (image != null) {
+            image.setLuminanceMode(luminanceMode);
+            croppedImage.setLuminanceMode(luminanceMode);
+            gridCache.clear();
+        }
+    }
+
+    /**
+     * Runs the ASCII art generation algorithm. If the current image was decoded at a different detail than
+     * the current resolution and subsampling setting call for, it is decoded again first. The brightness of
+     * every cell is kept between runs, so a run that follows only charset edits just maps it to characters.
+     *
+     * @throws AlgorithmException if the charset is empty
+     * @throws ImageException if there is a problem with reloading the image file
+     * @throws ResolutionException if the current resolution does not fit the current image
+     */
+    private void runAlgorithm() throws AlgorithmException, ImageException {
+        if (charset.isEmpty()) {
+            throw new AlgorithmException(ALGORITHM_ERROR_MSG);
+        }
+        decodeFor(resolution);
+        if (!fitsDecodedImage(resolution)) {
+            throw new ResolutionException(RES_BOUNDARIES_ERROR_MSG);
+        }
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(croppedImage, resolution,
+                subImgCharMatcher, pool, padded);
+        CellGrid brightnessGrid = gridCache.get(croppedImage, crop, resolution, padded,
+                asciiArtAlgorithm::getBrightnessGrid);
+        asciiArtAlgorithm.run(brightnessGrid, asciiOutput);
+    }
+
+    /**
+     * Decodes the current image again if it was decoded at a different detail than the given resolution and
+     * the subsampling setting call for. The factor is chosen by the padded width, in pixels of the file, of
+     * the part of the image that is converted, as the image cache chooses it.
+     *
+     * @param decodeResolution the resolution the image is about to be converted at
+     * @throws ImageException if there is a problem with reloading the image file
+     */
+    private void decodeFor(int decodeResolution) throws ImageException {
+        int fullWidth = crop == null ? padding.getWidth() * image.getSubsampling()
+                : PaddingImage.updateNumberToPowerOfTwo(crop.width);
+        int wantedSubsampling = subsampling ? Image.subsamplingFactor(fullWidth, decodeResolution) : 1;
+        if (wantedSubsampling != image.getSubsampling()) {
+            loadImage(imagePath, decodeResolution);
+        }
+    }
+
+    /**
+     * Runs the ASCII art generation algorithm at each of the given resolutions, reading the pixels of the
+     * image only once except for a tiled image without padding (see AsciiArtAlgorithm.runResolutions). The
+     * resolutions are checked before the image is decoded for the finest of them.
+     * The console output prints every resolution in turn; the HTML output writes each to a file of its own,
+     * named after the resolution.
+     *
+     * @param input the user input, followed by the resolutions
+     * @throws AlgorithmException if the charset is empty
+     * @throws ImageException if there is a problem with reloading the image file
+     * @throws ResolutionException if a resolution is not a number or does not fit the current image
+     */
+    private void runMultiResolution(String[] input) throws AlgorithmException, ImageException {
+        if (input.length < 2) {
+            throw new ResolutionException(RESOLUTION_ERROR_MSG);
+        }
+        int[] resolutions = new int[input.length - 1];
+        int finest = 0;
+        for (int i = 0; i < resolutions.length; i++) {
+            try {
+                resolutions[i] = Integer.parseInt(input[i + 1]);
+            }
+            catch (NumberFormatException e) {
+                throw new ResolutionException(RESOLUTION_ERROR_MSG);
+            }
+            finest = Math.max(finest, resolutions[i]);
+        }
+        if (charset.isEmpty()) {
+            throw new AlgorithmException(ALGORITHM_ERROR_MSG);
+        }
+        for (int newResolution : resolutions) {
+            if (!fitsImage(newResolution)) {
+                throw new ResolutionException(RES_BOUNDARIES_ERROR_MSG);
+            }
+        }
+        decodeFor(finest);
+        for (int newResolution : resolutions) {
+            if (!fitsDecodedImage(newResolution)) {
+                throw new ResolutionException(RES_BOUNDARIES_ERROR_MSG);
+            }
+        }
+        AsciiArt[] arts = new AsciiArtAlgorithm(croppedImage, finest, subImgCharMatcher, pool, padded)
+                .runResolutions(resolutions);
+        for (int i = 0; i < arts.length; i++) {
+            AsciiOutput output = htmlOutput
+                    ? new HtmlAsciiOutput(String.format(HTML_RESOLUTION_FILENAME, resolutions[i]), HTML_FONT)
+                    : asciiOutput;
+            output.out(arts[i]);
+        }
+    }
+
+    /**
+     * Runs the ASCII art generation algorithm on an image file band by band, so that files too large to
+     * load as the current image can still be converted. The current resolution, charset and output are used.
      *
+     * @param input the user input (include the name of the image file)
      * @throws AlgorithmException if the charset is empty
+     * @throws ImageException if there is a problem with reading the image file
+     * @throws ResolutionException if the current resolution exceeds the width of the image
      */
-    private void runAlgorithm() throws AlgorithmException {
+    private void runStreamingAlgorithm(String[] input) throws AlgorithmException, ImageException,
+            ResolutionException {
+        if (input.length != 2) {
+            throw new ImageException(IMAGE_ERROR_MSG);
+        }
         if (charset.isEmpty()) {
             throw new AlgorithmException(ALGORITHM_ERROR_MSG);
         }
-        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(image, resolution, subImgCharMatcher);
-        asciiOutput.out(asciiArtAlgorithm.run());
+        try (StreamingAsciiArtAlgorithm streamingAlgorithm = new StreamingAsciiArtAlgorithm(input[1],
+                resolution, subImgCharMatcher, luminanceMode)) {
+            if (resolution > streamingAlgorithm.getPaddedWidth()
+                    || streamingAlgorithm.getPaddedWidth() % resolution != 0) {
+                throw new ResolutionException(RES_BOUNDARIES_ERROR_MSG);
+            }
+            streamingAlgorithm.run(asciiOutput);
+        }
+        catch (IOException e) {
+            throw new ImageException(IMAGE_ERROR_MSG);
+        }
     }
 
     /**
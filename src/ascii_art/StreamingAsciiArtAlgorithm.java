@@ -0,0 +1,151 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.AsciiRowOutput;
+import image.Image;
+import image.LuminanceMode;
+import image.PaddingImage;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * StreamingAsciiArtAlgorithm converts an image file into ASCII art without ever holding the whole image in
+ * memory. The file is decoded one horizontal band of cell rows at a time through ImageReader source regions;
+ * each band is turned into its row of characters and its pixels are discarded before the next band is read,
+ * so peak pixel memory is bounded by one band whatever the size of the image. The image is padded to power
+ * of two dimensions exactly as AsciiArtAlgorithm pads it.
+ */
+public class StreamingAsciiArtAlgorithm implements AutoCloseable {
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int resolution;
+    private final SubImgCharMatcher subImgCharMatcher;
+    private final LuminanceMode luminanceMode;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int paddedWidth;
+    private final int paddedHeight;
+
+    /**
+     * Constructs a StreamingAsciiArtAlgorithm over the given file. Only the header of the file is read here.
+     *
+     * @param filename The path to the image file.
+     * @param resolution The number of characters per row of the ASCII art.
+     * @param subImgCharMatcher The character matcher for mapping image brightness to characters.
+     * @param luminanceMode The kernel used to convert pixels to luminance values.
+     * @throws IOException if the file cannot be opened or no ImageIO reader supports its format.
+     */
+    public StreamingAsciiArtAlgorithm(String filename, int resolution, SubImgCharMatcher subImgCharMatcher,
+                                      LuminanceMode luminanceMode) throws IOException {
+        this.resolution = resolution;
+        this.subImgCharMatcher = subImgCharMatcher;
+        this.luminanceMode = luminanceMode;
+        this.input = ImageIO.createImageInputStream(new File(filename));
+        if (input == null) {
+            throw new IOException("Cannot open image file: " + filename);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        this.reader = readers.next();
+        reader.setInput(input, false, true);
+        this.sourceWidth = reader.getWidth(0);
+        this.sourceHeight = reader.getHeight(0);
+        this.paddedWidth = PaddingImage.updateNumberToPowerOfTwo(sourceWidth);
+        this.paddedHeight = PaddingImage.updateNumberToPowerOfTwo(sourceHeight);
+    }
+
+    /**
+     * Gets the width of the image after padding, which bounds the resolution.
+     *
+     * @return The padded width of the image.
+     */
+    public int getPaddedWidth() {
+        return paddedWidth;
+    }
+
+    /**
+     * Runs the conversion band by band and writes the ASCII art to the given output.
+     * An output that implements AsciiRowOutput receives each row as soon as its band is done, so neither the
+     * pixels nor the characters of the whole image are ever held; any other output receives the whole grid
+     * after the last band. The pixels of a band are released as soon as its row is done. If a band cannot be
+     * decoded, the output is aborted rather than ended.
+     *
+     * @param asciiOutput The output the ASCII art is written to.
+     * @throws IOException if a band of the image cannot be decoded.
+     */
+    public void run(AsciiOutput asciiOutput) throws IOException {
+        int cellSize = paddedWidth / resolution;
+        int rows = paddedHeight / cellSize;
+        int paddingHeight = (paddedHeight - sourceHeight) / 2;
+        int paddingWidth = (paddedWidth - sourceWidth) / 2;
+        AsciiRowOutput rowOutput = AsciiRowOutput.of(asciiOutput);
+        RowBuffer line = new RowBuffer(subImgCharMatcher.isAscii(), resolution);
+        rowOutput.begin(rows, resolution);
+        try {
+            emitBands(rowOutput, line, rows, cellSize, paddingHeight, paddingWidth);
+        } catch (IOException | RuntimeException | Error e) {
+            rowOutput.abort();
+            throw e;
+        }
+        rowOutput.end();
+    }
+
+    /**
+     * Decodes the image band by band and pushes the row of characters of every band into the output.
+     *
+     * @param rowOutput     The output the rows are pushed into.
+     * @param line          The buffer receiving the characters of a row.
+     * @param rows          The number of rows of cells.
+     * @param cellSize      The side of a cell, in pixels.
+     * @param paddingHeight The number of white rows above the image.
+     * @param paddingWidth  The number of white columns left of the image.
+     * @throws IOException if a band of the image cannot be decoded.
+     */
+    private void emitBands(AsciiRowOutput rowOutput, RowBuffer line, int rows, int cellSize,
+                           int paddingHeight, int paddingWidth) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int row = 0; row < rows; row++) {
+            int top = row * cellSize;
+            int sourceTop = Math.max(top - paddingHeight, 0);
+            int sourceBottom = Math.min(top + cellSize - paddingHeight, sourceHeight);
+            Image band;
+            if (sourceTop < sourceBottom) {
+                param.setSourceRegion(new Rectangle(0, sourceTop, sourceWidth, sourceBottom - sourceTop));
+                band = new Image(reader.read(0, param));
+            } else {
+                // The band lies entirely in the padding.
+                band = new Image(new int[0], sourceWidth, 0);
+            }
+            band.setLuminanceMode(luminanceMode);
+            PaddingImage view = new PaddingImage(band, paddedWidth, paddedHeight, sourceTop + paddingHeight,
+                    paddingWidth);
+            for (int col = 0; col < resolution; col++) {
+                line.set(col, subImgCharMatcher.getCharByImageBrightness(
+                        view.getBrightness(top, col * cellSize, cellSize, cellSize)));
+            }
+            line.emit(rowOutput, 0);
+        }
+    }
+
+    /**
+     * Releases the image reader and closes the file.
+     *
+     * @throws IOException if closing the file fails.
+     */
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
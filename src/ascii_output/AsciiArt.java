@@ -0,0 +1,232 @@
+package ascii_output;
+
+/**
+ * A grid of ASCII characters produced by converting an image, stored compactly as a flat array of ASCII
+ * codes, row by row. Each character takes one byte rather than the two of a char, and every row is a
+ * contiguous slice of the array, so outputs can write whole rows at once.
+ * Art made with a charset that is not all ASCII is stored as a flat char array instead, with the same
+ * layout; an ASCII grid switches to it as soon as a non-ASCII character is set.
+ */
+public final class AsciiArt {
+
+    /**
+     * The largest ASCII code.
+     */
+    private static final int MAX_ASCII = 127;
+
+    /**
+     * Number of rows of characters.
+     */
+    private final int rows;
+
+    /**
+     * Number of characters in a row.
+     */
+    private final int cols;
+
+    /**
+     * ASCII code of every character, stored row by row; null once the art holds a non-ASCII character.
+     */
+    private byte[] codes;
+
+    /**
+     * Every character, stored row by row, when the art holds a non-ASCII character; null otherwise.
+     */
+    private char[] chars;
+
+    /**
+     * Constructs a blank AsciiArt of the given size, in which every character is NUL until set.
+     *
+     * @param rows The number of rows of characters.
+     * @param cols The number of characters in a row.
+     */
+    public AsciiArt(int rows, int cols) {
+        this(rows, cols, true);
+    }
+
+    /**
+     * Constructs a blank AsciiArt of the given size, stored as ASCII codes or as chars.
+     *
+     * @param rows  The number of rows of characters.
+     * @param cols  The number of characters in a row.
+     * @param ascii True to store ASCII codes, false to store chars from the start.
+     */
+    public AsciiArt(int rows, int cols, boolean ascii) {
+        this.rows = rows;
+        this.cols = cols;
+        this.codes = ascii ? new byte[rows * cols] : null;
+        this.chars = ascii ? null : new char[rows * cols];
+    }
+
+    /**
+     * Constructs an AsciiArt holding a copy of the given rows of characters, which must all have the same
+     * length.
+     *
+     * @param chars The rows of characters.
+     * @return The AsciiArt holding the characters.
+     * @throws IllegalArgumentException if the rows differ in length.
+     */
+    public static AsciiArt fromCharArray(char[][] chars) {
+        AsciiArt art = new AsciiArt(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (int row = 0; row < art.rows; row++) {
+            if (chars[row].length != art.cols) {
+                throw new IllegalArgumentException("Row " + row + " has " + chars[row].length
+                        + " characters instead of " + art.cols);
+            }
+            for (int col = 0; col < art.cols; col++) {
+                art.set(row, col, chars[row][col]);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * Gets the number of rows of characters.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of characters in a row.
+     *
+     * @return The number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Retrieves the character at the given row and column.
+     *
+     * @param row The row of the character.
+     * @param col The column of the character.
+     * @return The character.
+     */
+    public char get(int row, int col) {
+        return codes != null ? (char) codes[row * cols + col] : chars[row * cols + col];
+    }
+
+    /**
+     * Sets the character at the given row and column. A non-ASCII character switches the art to chars.
+     *
+     * @param row The row of the character.
+     * @param col The column of the character.
+     * @param c   The character.
+     */
+    public void set(int row, int col, char c) {
+        if (codes != null && c > MAX_ASCII) {
+            widen();
+        }
+        if (codes != null) {
+            codes[row * cols + col] = (byte) c;
+        } else {
+            chars[row * cols + col] = c;
+        }
+    }
+
+    /**
+     * Checks whether the art is stored as ASCII codes, so that getCodes() rather than getChars() holds it.
+     *
+     * @return True if every character is ASCII and the art is stored as ASCII codes.
+     */
+    public boolean isAscii() {
+        return codes != null;
+    }
+
+    /**
+     * Sets a whole row of characters from a slice of ASCII codes.
+     *
+     * @param row    The row to set.
+     * @param codes  The array holding the ASCII codes of the row.
+     * @param offset The index in the array of the first character of the row.
+     * @throws IllegalArgumentException if a code is not ASCII.
+     */
+    public void setRow(int row, byte[] codes, int offset) {
+        for (int col = 0; col < cols; col++) {
+            if (codes[offset + col] < 0) {
+                throw new IllegalArgumentException("Not an ASCII code: " + (codes[offset + col] & 0xFF));
+            }
+        }
+        if (this.codes != null) {
+            System.arraycopy(codes, offset, this.codes, row * cols, cols);
+        } else {
+            for (int col = 0; col < cols; col++) {
+                chars[row * cols + col] = (char) codes[offset + col];
+            }
+        }
+    }
+
+    /**
+     * Sets a whole row of characters from a slice of a char array. A non-ASCII character switches the art
+     * to chars.
+     *
+     * @param row    The row to set.
+     * @param chars  The array holding the characters of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    public void setRow(int row, char[] chars, int offset) {
+        for (int col = 0; col < cols; col++) {
+            set(row, col, chars[offset + col]);
+        }
+    }
+
+    /**
+     * Switches the storage from ASCII codes to chars, keeping the characters set so far.
+     */
+    private void widen() {
+        chars = new char[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            chars[i] = (char) codes[i];
+        }
+        codes = null;
+    }
+
+    /**
+     * Gets the index in the array of ASCII codes, or of chars, of the first character of a row. The row
+     * occupies the next getCols() entries.
+     *
+     * @param row The row.
+     * @return The index of the first character of the row.
+     */
+    public int getRowOffset(int row) {
+        return row * cols;
+    }
+
+    /**
+     * Gives direct access to the ASCII codes of the characters, stored row by row. Intended for writing rows
+     * in bulk; callers must not modify the returned array.
+     *
+     * @return The ASCII code of every character, or null if the art is not stored as ASCII codes.
+     */
+    public byte[] getCodes() {
+        return codes;
+    }
+
+    /**
+     * Gives direct access to the characters of art that is not stored as ASCII codes, row by row. Intended
+     * for writing rows in bulk; callers must not modify the returned array.
+     *
+     * @return Every character, or null if the art is stored as ASCII codes.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Converts the characters to one char array per row, for outputs that take a 2D array.
+     *
+     * @return The rows of characters.
+     */
+    public char[][] toCharArray() {
+        char[][] chars = new char[rows][cols];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                chars[row][col] = get(row, col);
+            }
+        }
+        return chars;
+    }
+}
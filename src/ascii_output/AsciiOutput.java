@@ -10,4 +10,12 @@ public interface AsciiOutput {
      * Output the specified 2D array of chars
      */
     void out(char[][] chars);
+
+    /**
+     * Output the specified ASCII art. Implementations that can write whole rows at once should override
+     * this; by default the art is converted to a 2D array of chars.
+     */
+    default void out(AsciiArt art) {
+        out(art.toCharArray());
+    }
 }
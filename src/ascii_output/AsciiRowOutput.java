@@ -0,0 +1,93 @@
+package ascii_output;
+
+/**
+ * An output that receives ASCII art one row at a time, as the rows are produced, rather than as a whole
+ * grid. Writing can then start as soon as the first row is ready, and the producer need not hold the grid.
+ * Calls come in the order begin, row (once per row, top to bottom), end; a producer that fails part way
+ * calls abort instead of end, so that the output can discard what it has written. Rows of art made with an
+ * ASCII charset come as ASCII codes, rows of any other art as chars.
+ */
+public interface AsciiRowOutput {
+
+    /**
+     * Starts the output of ASCII art of the given size.
+     *
+     * @param rows The number of rows that will follow.
+     * @param cols The number of characters in a row.
+     */
+    void begin(int rows, int cols);
+
+    /**
+     * Outputs the next row. The row is the slice of cols ASCII codes starting at the given offset of the
+     * array; the array may be reused once the call returns.
+     *
+     * @param codes  The array holding the ASCII codes of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    void row(byte[] codes, int offset);
+
+    /**
+     * Outputs the next row, made with a charset that is not all ASCII. The row is the slice of cols
+     * characters starting at the given offset of the array; the array may be reused once the call returns.
+     *
+     * @param chars  The array holding the characters of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    void row(char[] chars, int offset);
+
+    /**
+     * Ends the output, after the last row.
+     */
+    void end();
+
+    /**
+     * Abandons the output after begin, when the producer fails before the last row; end is not called. The
+     * rows received so far must not be published as complete ASCII art. Does nothing by default.
+     */
+    default void abort() {
+    }
+
+    /**
+     * Adapts an AsciiOutput to receive rows: an output that already streams rows is returned as is, any
+     * other is fed the whole ASCII art once the last row arrives, and nothing if the output is aborted.
+     *
+     * @param output The output to adapt.
+     * @return The output receiving rows.
+     */
+    static AsciiRowOutput of(AsciiOutput output) {
+        if (output instanceof AsciiRowOutput) {
+            return (AsciiRowOutput) output;
+        }
+        return new AsciiRowOutput() {
+            private AsciiArt art;
+            private int next;
+
+            @Override
+            public void begin(int rows, int cols) {
+                art = new AsciiArt(rows, cols);
+                next = 0;
+            }
+
+            @Override
+            public void row(byte[] codes, int offset) {
+                art.setRow(next++, codes, offset);
+            }
+
+            @Override
+            public void row(char[] chars, int offset) {
+                art.setRow(next++, chars, offset);
+            }
+
+            @Override
+            public void end() {
+                output.out(art);
+                art = null;
+            }
+
+            @Override
+            public void abort() {
+                art = null;
+            }
+        };
+    }
+}
@@ -1,12 +1,25 @@
 package ascii_output;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Represents an output method that displays a 2D array of characters to the console.
- * This class implements the AsciiOutput interface.
+ * This class implements the AsciiOutput interface, and the AsciiRowOutput interface to print rows as soon as
+ * they are produced.
  *
  * @author Dan Nirel
  */
-public class ConsoleAsciiOutput implements AsciiOutput {
+public class ConsoleAsciiOutput implements AsciiOutput, AsciiRowOutput {
+
+    /**
+     * Buffer holding a row with its separating spaces and line separator, allocated by begin.
+     */
+    private byte[] line;
+
+    /**
+     * Number of characters in a row of the ASCII art being printed.
+     */
+    private int cols;
 
     /**
      * Constructs a ConsoleAsciiOutput object.
@@ -28,4 +41,76 @@ public class ConsoleAsciiOutput implements AsciiOutput {
             System.out.println();
         }
     }
+
+    /**
+     * Outputs the provided ASCII art to the console, in the same layout as the 2D array form.
+     * Each row is assembled into a byte buffer and written in a single call.
+     *
+     * @param art The ASCII art to be outputted.
+     */
+    @Override
+    public void out(AsciiArt art) {
+        begin(art.getRows(), art.getCols());
+        for (int row = 0; row < art.getRows(); row++) {
+            if (art.isAscii()) {
+                row(art.getCodes(), art.getRowOffset(row));
+            } else {
+                row(art.getChars(), art.getRowOffset(row));
+            }
+        }
+        end();
+    }
+
+    /**
+     * Prepares the row buffer for ASCII art of the given size.
+     *
+     * @param rows The number of rows that will follow.
+     * @param cols The number of characters in a row.
+     */
+    @Override
+    public void begin(int rows, int cols) {
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        this.cols = cols;
+        line = new byte[2 * cols + separator.length];
+        System.arraycopy(separator, 0, line, 2 * cols, separator.length);
+    }
+
+    /**
+     * Prints a row, each character followed by a space, in a single write.
+     *
+     * @param codes  The array holding the ASCII codes of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    @Override
+    public void row(byte[] codes, int offset) {
+        for (int col = 0; col < cols; col++) {
+            line[2 * col] = codes[offset + col];
+            line[2 * col + 1] = ' ';
+        }
+        System.out.write(line, 0, line.length);
+    }
+
+    /**
+     * Prints a row of characters that need not be ASCII, each followed by a space, encoded by System.out.
+     *
+     * @param chars  The array holding the characters of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    @Override
+    public void row(char[] chars, int offset) {
+        StringBuilder text = new StringBuilder(2 * cols);
+        for (int col = 0; col < cols; col++) {
+            text.append(chars[offset + col]).append(' ');
+        }
+        System.out.println(text);
+    }
+
+    /**
+     * Flushes the printed rows.
+     */
+    @Override
+    public void end() {
+        System.out.flush();
+        line = null;
+    }
 }
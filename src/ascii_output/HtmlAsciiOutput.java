@@ -3,16 +3,22 @@ package ascii_output;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Logger;
 
 /**
  * Represents an output method that generates an HTML file to display a 2D array of characters
  * in a web browser.
- * This class implements the AsciiOutput interface.
+ * This class implements the AsciiOutput interface, and the AsciiRowOutput interface to write rows to the file
+ * as soon as they are produced. Rows are written to a temporary file next to the target, which replaces the
+ * target only once the page is complete, so an aborted or failed output leaves the previous file untouched.
  *
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements AsciiOutput, AsciiRowOutput {
     /**
      * The baseline spacing used for rendering characters in the HTML output.
      */
@@ -23,9 +29,30 @@ public class HtmlAsciiOutput implements AsciiOutput {
      */
     private static final double BASE_FONT_SIZE = 150.0;
 
+    /**
+     * Suffix of the temporary file the page is written to before it replaces the HTML file.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
     private final String fontName;
     private final String filename;
 
+    /**
+     * Writer of the file being written row by row, open between begin and end; null if opening or writing
+     * the file failed.
+     */
+    private BufferedWriter rowWriter;
+
+    /**
+     * Temporary file the rows are written to, moved over the target by end; null outside of begin and end.
+     */
+    private Path tempFile;
+
+    /**
+     * Buffer holding the characters of a row being written, allocated by begin.
+     */
+    private char[] rowBuffer;
+
     /**
      * Constructs an HtmlAsciiOutput object with the specified filename and font name.
      *
@@ -45,41 +72,210 @@ public class HtmlAsciiOutput implements AsciiOutput {
      */
     @Override
     public void out(char[][] chars) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                    "<!DOCTYPE html>\n" +
-                            "<html>\n" +
-                            "<body style=\"" +
-                            "\tCOLOR:#000000;" +
-                            "\tTEXT-ALIGN:center;" +
-                            "\tFONT-SIZE:1px;\">\n" +
-                            "<p style=\"" +
-                            "\twhite-space:pre;" +
-                            "\tFONT-FAMILY:%s;" +
-                            "\tFONT-SIZE:%frem;" +
-                            "\tLETTER-SPACING:0.15em;" +
-                            "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE / chars[0].length, BASE_LINE_SPACING));
-
-            for (int y = 0; y < chars.length; y++) {
-                for (int x = 0; x < chars[y].length; x++) {
-                    String htmlRep;
-                    switch (chars[y][x]) {
-                        case '<': htmlRep = "&lt;"; break;
-                        case '>': htmlRep = "&gt;"; break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
-                }
-                writer.newLine();
+        begin(chars.length, chars[0].length);
+        for (char[] row : chars) {
+            row(row, 0);
+        }
+        end();
+    }
+
+    /**
+     * Outputs the provided ASCII art to an HTML file.
+     * Each row is copied from the ASCII codes into a reused buffer and written as runs of characters
+     * between the ones that must be escaped, rather than one character at a time.
+     *
+     * @param art The ASCII art to be outputted.
+     */
+    @Override
+    public void out(AsciiArt art) {
+        begin(art.getRows(), art.getCols());
+        for (int y = 0; y < art.getRows(); y++) {
+            if (art.isAscii()) {
+                row(art.getCodes(), art.getRowOffset(y));
+            } else {
+                row(art.getChars(), art.getRowOffset(y));
             }
-            writer.write(
-                    "</p>\n" +
-                            "</body>\n" +
-                            "</html>\n");
+        }
+        end();
+    }
+
+    /**
+     * Opens the temporary file next to the HTML file and writes the opening of the page, with the font scaled
+     * to the number of characters per row.
+     *
+     * @param rows The number of rows that will follow.
+     * @param cols The number of characters in a row.
+     */
+    @Override
+    public void begin(int rows, int cols) {
+        rowBuffer = new char[cols];
+        try {
+            tempFile = Paths.get(filename + TEMP_SUFFIX);
+            rowWriter = new BufferedWriter(new FileWriter(tempFile.toFile()));
+            writeHeader(rowWriter, cols);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Writes a row to the HTML file, as runs between the characters that must be escaped.
+     *
+     * @param codes  The array holding the ASCII codes of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    @Override
+    public void row(byte[] codes, int offset) {
+        if (rowWriter == null) {
+            return;
+        }
+        for (int x = 0; x < rowBuffer.length; x++) {
+            rowBuffer[x] = (char) codes[offset + x];
+        }
+        try {
+            writeRow(rowWriter, rowBuffer);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Writes a row of characters that need not be ASCII to the HTML file.
+     *
+     * @param chars  The array holding the characters of the row.
+     * @param offset The index in the array of the first character of the row.
+     */
+    @Override
+    public void row(char[] chars, int offset) {
+        if (rowWriter == null) {
+            return;
+        }
+        System.arraycopy(chars, offset, rowBuffer, 0, rowBuffer.length);
+        try {
+            writeRow(rowWriter, rowBuffer);
         } catch (IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            fail();
         }
     }
+
+    /**
+     * Writes the closing of the HTML document, closes the temporary file and moves it over the HTML file.
+     */
+    @Override
+    public void end() {
+        if (rowWriter != null) {
+            try {
+                writeFooter(rowWriter);
+                rowWriter.close();
+                rowWriter = null;
+                Files.move(tempFile, Paths.get(filename), StandardCopyOption.REPLACE_EXISTING);
+                tempFile = null;
+            } catch (IOException e) {
+                fail();
+            }
+        }
+        rowBuffer = null;
+    }
+
+    /**
+     * Discards the rows written so far by deleting the temporary file, leaving the HTML file as it was.
+     */
+    @Override
+    public void abort() {
+        discard();
+        rowBuffer = null;
+    }
+
+    /**
+     * Logs a failure to write the HTML file and abandons the rows still to come.
+     */
+    private void fail() {
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        discard();
+    }
+
+    /**
+     * Closes and deletes the temporary file, if one is open.
+     */
+    private void discard() {
+        if (rowWriter != null) {
+            try {
+                rowWriter.close();
+            } catch (IOException e) {
+                // The file is deleted anyway.
+            }
+            rowWriter = null;
+        }
+        if (tempFile != null) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                // Only a stray temporary file is left; the HTML file is untouched.
+            }
+            tempFile = null;
+        }
+    }
+
+    /**
+     * Writes the opening of the HTML document, with the font scaled to the number of characters per row.
+     *
+     * @param writer The writer of the HTML file.
+     * @param cols   The number of characters per row.
+     * @throws IOException if writing fails.
+     */
+    private void writeHeader(BufferedWriter writer, int cols) throws IOException {
+        writer.write(String.format(
+                "<!DOCTYPE html>\n" +
+                        "<html>\n" +
+                        "<body style=\"" +
+                        "\tCOLOR:#000000;" +
+                        "\tTEXT-ALIGN:center;" +
+                        "\tFONT-SIZE:1px;\">\n" +
+                        "<p style=\"" +
+                        "\twhite-space:pre;" +
+                        "\tFONT-FAMILY:%s;" +
+                        "\tFONT-SIZE:%frem;" +
+                        "\tLETTER-SPACING:0.15em;" +
+                        "\tLINE-HEIGHT:%fem;\">\n",
+                fontName, BASE_FONT_SIZE / cols, BASE_LINE_SPACING));
+    }
+
+    /**
+     * Writes a row of characters followed by a line break, escaping the characters that are special in
+     * HTML. The characters between them are written in runs.
+     *
+     * @param writer The writer of the HTML file.
+     * @param row    The characters of the row.
+     * @throws IOException if writing fails.
+     */
+    private static void writeRow(BufferedWriter writer, char[] row) throws IOException {
+        int start = 0;
+        for (int x = 0; x < row.length; x++) {
+            String htmlRep;
+            switch (row[x]) {
+                case '<': htmlRep = "&lt;"; break;
+                case '>': htmlRep = "&gt;"; break;
+                case '&': htmlRep = "&amp;"; break;
+                default:  continue;
+            }
+            writer.write(row, start, x - start);
+            writer.write(htmlRep);
+            start = x + 1;
+        }
+        writer.write(row, start, row.length - start);
+        writer.newLine();
+    }
+
+    /**
+     * Writes the closing of the HTML document.
+     *
+     * @param writer The writer of the HTML file.
+     * @throws IOException if writing fails.
+     */
+    private static void writeFooter(BufferedWriter writer) throws IOException {
+        writer.write(
+                "</p>\n" +
+                        "</body>\n" +
+                        "</html>\n");
+    }
 }
@@ -0,0 +1,110 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Divides an image, without padding, into a grid of cells with any number of columns and computes the mean
+ * brightness of every cell by fractional-area box averaging.
+ * Cells are as close to square as the image allows: the number of rows follows from the aspect ratio, and
+ * the cell width and height are the image sides divided by the numbers of columns and rows, so the cells
+ * tile the image exactly. Cell edges fall between pixels in general; every pixel under a cell is weighted by
+ * the part of it the cell covers, so each pixel contributes its full weight exactly once across the grid.
+ */
+public class BoxFilter {
+
+    /**
+     * The image being divided into cells.
+     */
+    private final Image image;
+
+    /**
+     * Number of rows of cells.
+     */
+    private final int rows;
+
+    /**
+     * Number of cells in a row.
+     */
+    private final int cols;
+
+    /**
+     * Height of a cell, in pixels.
+     */
+    private final double cellHeight;
+
+    /**
+     * Width of a cell, in pixels.
+     */
+    private final double cellWidth;
+
+    /**
+     * Constructs a BoxFilter dividing the given image into the given number of columns of cells.
+     *
+     * @param image The image to divide into cells.
+     * @param cols  The number of cells in a row, between 1 and the width of the image.
+     * @throws IllegalArgumentException if the number of columns is out of range.
+     */
+    public BoxFilter(Image image, int cols) {
+        if (cols < 1 || cols > image.getWidth()) {
+            throw new IllegalArgumentException("Cannot divide an image " + image.getWidth()
+                    + " pixels wide into " + cols + " columns");
+        }
+        this.image = image;
+        this.cols = cols;
+        this.cellWidth = (double) image.getWidth() / cols;
+        this.rows = (int) Math.max(1, Math.round(image.getHeight() / cellWidth));
+        this.cellHeight = (double) image.getHeight() / rows;
+    }
+
+    /**
+     * Gets the number of rows of cells.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of cells in a row.
+     *
+     * @return The number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Calculates the mean brightness of a cell, normalized to the range [0, 1].
+     *
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The coverage-weighted mean brightness of the pixels under the cell.
+     */
+    public double getBrightness(int row, int col) {
+        double top = row * cellHeight;
+        double left = col * cellWidth;
+        double bottom = row == rows - 1 ? image.getHeight() : (row + 1) * cellHeight;
+        double right = col == cols - 1 ? image.getWidth() : (col + 1) * cellWidth;
+        double sum = image.sumLuminance(top, left, bottom, right);
+        return sum / ((bottom - top) * (right - left) * image.getLuminanceMode().getMaxLuminance());
+    }
+
+    /**
+     * Computes the brightness grid of the image: the mean brightness of every cell, between 0 and 1.
+     *
+     * @param pool The pool to process row bands of cells on, or null to run on the calling thread.
+     * @return The brightness grid, with getRows() rows and getCols() columns.
+     */
+    public CellGrid getBrightnessGrid(ForkJoinPool pool) {
+        double[] values = new double[rows * cols];
+        ParallelRows.forEachBand(pool, rows, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                for (int col = 0; col < cols; col++) {
+                    values[row * cols + col] = getBrightness(row, col);
+                }
+            }
+        });
+        return new CellGrid(rows, cols, values);
+    }
+}
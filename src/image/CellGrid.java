@@ -0,0 +1,182 @@
+package image;
+
+/**
+ * A grid of per-cell values with an explicit number of rows and columns, backed by a flat double array
+ * stored row by row, or by an off-heap grid of the same layout. Cell (row, col) is at index row * cols + col,
+ * so the grid of a non-square image is addressed the same way as that of a square one.
+ */
+public final class CellGrid {
+
+    /**
+     * Largest number of values a heap grid holds: the largest length of a Java array on common runtimes.
+     */
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    /**
+     * Number of rows of cells.
+     */
+    private final int rows;
+
+    /**
+     * Number of cells in a row.
+     */
+    private final int cols;
+
+    /**
+     * The value of every cell, stored row by row, or null if the grid is kept off the heap.
+     */
+    private final double[] values;
+
+    /**
+     * The value of every cell in direct memory, or null if the grid is kept on the heap.
+     */
+    private final OffHeapGrid offHeapValues;
+
+    /**
+     * Constructs a CellGrid over the given values. The array is used as is, without copying.
+     *
+     * @param rows   The number of rows of cells.
+     * @param cols   The number of cells in a row.
+     * @param values The value of every cell, stored row by row.
+     * @throws IllegalArgumentException if the array does not hold exactly rows * cols values.
+     */
+    public CellGrid(int rows, int cols, double[] values) {
+        if (rows < 0 || cols < 0 || (long) rows * cols != values.length) {
+            throw new IllegalArgumentException("A " + rows + "x" + cols + " grid cannot hold "
+                    + values.length + " values");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.values = values;
+        this.offHeapValues = null;
+    }
+
+    /**
+     * Constructs a CellGrid of the given size, filled with zeros, on the heap or off it.
+     *
+     * @param rows    The number of rows of cells.
+     * @param cols    The number of cells in a row.
+     * @param offHeap True to keep the values in direct memory rather than on the heap.
+     * @throws IllegalStateException if the grid is kept on the heap and is too large for a Java array.
+     */
+    CellGrid(int rows, int cols, boolean offHeap) {
+        this.rows = rows;
+        this.cols = cols;
+        if (offHeap) {
+            this.values = null;
+            this.offHeapValues = new OffHeapGrid(rows, cols);
+        } else {
+            if ((long) rows * cols > MAX_ARRAY_LENGTH) {
+                throw new IllegalStateException("A " + rows + "x" + cols
+                        + " grid is too large for the heap; keep the tables off-heap");
+            }
+            this.values = new double[rows * cols];
+            this.offHeapValues = null;
+        }
+    }
+
+    /**
+     * Gets the number of rows of cells.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gets the number of cells in a row.
+     *
+     * @return The number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Retrieves the value of a cell.
+     *
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The value of the cell.
+     */
+    public double get(int row, int col) {
+        if (offHeapValues != null) {
+            return offHeapValues.getDouble(row, col);
+        }
+        return values[row * cols + col];
+    }
+
+    /**
+     * Gives direct access to the backing array, stored row by row. Intended for hot paths; callers must not
+     * modify the returned array.
+     *
+     * @return The value of every cell.
+     * @throws IllegalStateException if the grid is kept off the heap.
+     */
+    public double[] getValues() {
+        if (values == null) {
+            throw new IllegalStateException("The grid is kept off the heap");
+        }
+        return values;
+    }
+
+    /**
+     * Checks whether the values of the grid are kept off the Java heap.
+     *
+     * @return True if the values are kept in direct memory.
+     */
+    public boolean isOffHeap() {
+        return offHeapValues != null;
+    }
+
+    /**
+     * Copies a whole row of cells into the given array.
+     *
+     * @param row The row to copy.
+     * @param dst The destination array, at least cols long.
+     */
+    void copyRow(int row, double[] dst) {
+        if (offHeapValues != null) {
+            offHeapValues.getDoubles(row, 0, cols, dst, 0);
+        } else {
+            System.arraycopy(values, row * cols, dst, 0, cols);
+        }
+    }
+
+    /**
+     * Writes a whole row of cells. Rows may be written from several threads at once.
+     *
+     * @param row The row to write.
+     * @param src The values of the row, at least cols long.
+     */
+    void putRow(int row, double[] src) {
+        if (offHeapValues != null) {
+            offHeapValues.putDoubleRow(row, src);
+        } else {
+            System.arraycopy(src, 0, values, row * cols, cols);
+        }
+    }
+
+    /**
+     * Gets the memory held by the values of the grid, on or off the heap.
+     *
+     * @return The size of the values, in bytes.
+     */
+    long getBytes() {
+        if (offHeapValues != null) {
+            return offHeapValues.getBytes();
+        }
+        return (long) Double.BYTES * values.length;
+    }
+
+    /**
+     * Frees the direct memory of a grid kept off the heap. The grid must not be used afterwards. Does
+     * nothing for a grid kept on the heap.
+     */
+    void release() {
+        if (offHeapValues != null) {
+            offHeapValues.release();
+        }
+    }
+}
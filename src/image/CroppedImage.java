@@ -0,0 +1,81 @@
+package image;
+
+/**
+ * Represents a rectangular region of another image.
+ * The region is a view: its pixels are read from the source image with shifted coordinates and never
+ * copied, so only the part of the source the region covers is ever touched (for a TiledImage, only the
+ * tiles under the region are decoded). The luminance plane, summed-area table and brightness pyramid of the
+ * region are its own, built over the region alone, so converting it costs in proportion to its area rather
+ * than to that of the whole image.
+ */
+public class CroppedImage extends Image {
+
+    /**
+     * The image the region is taken from.
+     */
+    private final Image source;
+
+    /**
+     * The row of the source image at the top of the region.
+     */
+    private final int top;
+
+    /**
+     * The column of the source image at the left of the region.
+     */
+    private final int left;
+
+    /**
+     * Constructs a CroppedImage over a region of the given image, with the subsampling factor, luminance
+     * kernel and off-heap setting of the image.
+     *
+     * @param source The image to take the region from.
+     * @param top    The top row of the region.
+     * @param left   The left column of the region.
+     * @param height The height of the region.
+     * @param width  The width of the region.
+     * @throws IllegalArgumentException if the region is empty or does not lie inside the image.
+     */
+    public CroppedImage(Image source, int top, int left, int height, int width) {
+        super(width, height, source.getSubsampling());
+        if (top < 0 || left < 0 || height < 1 || width < 1 || top + height > source.getHeight()
+                || left + width > source.getWidth()) {
+            throw new IllegalArgumentException("Region " + width + "x" + height + " at (" + left + ", "
+                    + top + ") does not lie inside an image of " + source.getWidth() + "x"
+                    + source.getHeight());
+        }
+        this.source = source;
+        this.top = top;
+        this.left = left;
+        setLuminanceMode(source.getLuminanceMode());
+        setOffHeap(source.isOffHeap());
+    }
+
+    /**
+     * Gets the row of the source image at the top of the region.
+     *
+     * @return The top row of the region.
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * Gets the column of the source image at the left of the region.
+     *
+     * @return The left column of the region.
+     */
+    public int getLeft() {
+        return left;
+    }
+
+    @Override
+    public int getRGB(int row, int col) {
+        return source.getRGB(top + row, left + col);
+    }
+
+    @Override
+    public void copyRow(int row, int col, int length, int[] dst, int dstOffset) {
+        source.copyRow(top + row, left + col, length, dst, dstOffset);
+    }
+}
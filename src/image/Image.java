@@ -1,22 +1,71 @@
 package image;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents an image.
- * This class provides functionality to read images from files, create images from Color arrays,
- * retrieve pixel information, get dimensions, and save images to files.
+ * This class provides functionality to read images from files, create images from Color arrays or packed
+ * ARGB arrays, retrieve pixel information, get dimensions, and save images to files.
+ * Pixels are stored in a single packed ARGB int array, row by row, so that large images do not allocate a
+ * Color object per pixel.
  *
  * @author Dan Nirel
  */
 public class Image {
 
-    /** 2D array representing the pixels of the image. */
-    private final Color[][] pixelArray;
+    /** Alpha bits of a fully opaque packed ARGB pixel. */
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+
+    /** Bit mask extracting an unsigned byte sample. */
+    private static final int BYTE_MASK = 0xFF;
+
+    /** Number of distinct values of an 8-bit sample. */
+    private static final int BYTE_VALUES = 256;
+
+    /** Number of leading bytes inspected to recognize the format of an image file. */
+    private static final int MAGIC_LENGTH = 2;
+
+    /**
+     * Minimal number of decoded samples along each side of a cell when decoding with subsampling. Cells are
+     * averaged, so this many samples per side keep the cell means close to those of a full decode.
+     */
+    private static final int MIN_CELL_SAMPLES = 8;
+
+    /**
+     * Largest number of pixels decoded in full (256 MB of packed pixels); larger images and images stored in
+     * several native tiles are loaded as a TiledImage.
+     */
+    private static final long MAX_DECODED_PIXELS = 1L << 26;
+
+    /**
+     * Packed ARGB pixels of the image, stored row by row (index = row * width + column). Null for subclasses
+     * that keep their pixels in another form.
+     */
+    private final int[] pixels;
+
+    /**
+     * Packed copy of the pixels of a subclass that keeps them in another form, created on the first call to
+     * getPixels. Volatile so that a copy built by one thread is seen fully built by the others.
+     */
+    private volatile int[] packedPixels;
 
     /** Width of the image. */
     private final int width;
@@ -24,6 +73,37 @@ public class Image {
     /** Height of the image. */
     private final int height;
 
+    /** Factor by which the source file was subsampled when decoded into this image (1 for a full decode). */
+    private final int subsampling;
+
+    /** Kernel used to convert pixels to luminance values. */
+    private LuminanceMode luminanceMode = LuminanceMode.EXACT;
+
+    /** Whether the luminance plane, summed-area table and brightness pyramid are kept off the Java heap. */
+    private boolean offHeap;
+
+    /**
+     * Grayscale (luminance) value of every pixel, stored row by row, computed on first use. Kept in double
+     * precision, so that cell sums equal those of the pixels' own double values up to rounding. Volatile so
+     * that worker threads reading rows see the plane fully built.
+     */
+    private volatile double[] luminance;
+
+    /** Off-heap luminance plane, used instead of the luminance array when the image is off-heap. */
+    private volatile OffHeapGrid offHeapLuminance;
+
+    /** Summed-area table of the grayscale values, built on first use. */
+    private volatile IntegralImage integralImage;
+
+    /** Brightness pyramid of the padded image, built on first use. */
+    private LuminancePyramid luminancePyramid;
+
+    /**
+     * Lock guarding the build of the brightness pyramid. Distinct from the image itself, which workers
+     * building the pyramid may lock while reading rows.
+     */
+    private final Object pyramidLock = new Object();
+
     /**
      * Constructs an Image object by reading an image file.
      *
@@ -31,16 +111,33 @@ public class Image {
      * @throws IOException if an I/O error occurs during reading the image file.
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(readBufferedImage(filename));
+    }
+
+    /**
+     * Constructs an Image object from an already decoded BufferedImage.
+     * Common raster layouts (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY and
+     * similar) are copied straight from the underlying DataBuffer; any other color model falls back to
+     * BufferedImage.getRGB.
+     *
+     * @param im The decoded image.
+     */
+    public Image(BufferedImage im) {
+        this(im, 1);
+    }
+
+    /**
+     * Constructs an Image object from an already decoded BufferedImage that was decoded from its file with
+     * the given subsampling factor (see Image(BufferedImage)).
+     *
+     * @param im          The decoded image.
+     * @param subsampling The factor by which the file was subsampled along each side, 1 for a full decode.
+     */
+    public Image(BufferedImage im, int subsampling) {
         width = im.getWidth();
         height = im.getHeight();
-
-        pixelArray = new Color[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j] = new Color(im.getRGB(j, i));
-            }
-        }
+        pixels = decodePixels(im);
+        this.subsampling = subsampling;
     }
 
     /**
@@ -51,9 +148,371 @@ public class Image {
      * @param height     The height of the image.
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+        this.pixels = new int[width * height];
+        this.width = width;
+        this.height = height;
+        this.subsampling = 1;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = pixelArray[i][j].getRGB();
+            }
+        }
+    }
+
+    /**
+     * Constructs an Image object over a packed ARGB pixel array. The array is used as is, without copying.
+     *
+     * @param pixels The packed ARGB pixels, stored row by row.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    public Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.subsampling = 1;
+    }
+
+    /**
+     * Constructs an Image object of the given size whose pixels are provided by a subclass, which must
+     * override getRGB and copyRow. getPixels then builds a packed copy of the pixels through copyRow.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    protected Image(int width, int height) {
+        this(width, height, 1);
+    }
+
+    /**
+     * Constructs an Image object of the given size whose pixels are provided by a subclass (see
+     * Image(int, int)), standing for a file subsampled by the given factor.
+     *
+     * @param width       The width of the image.
+     * @param height      The height of the image.
+     * @param subsampling The factor by which the file was subsampled along each side, 1 for a full decode.
+     */
+    protected Image(int width, int height, int subsampling) {
+        this.pixels = null;
         this.width = width;
         this.height = height;
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Loads an image file, choosing the loader by the magic bytes at the start of the file.
+     * Raw netpbm frames (P5, P6 and P7) are memory-mapped and read in place; images stored in several native
+     * tiles or larger than MAX_DECODED_PIXELS are loaded as a TiledImage, decoded tile by tile on demand;
+     * every other image is decoded in full through ImageIO.
+     *
+     * @param filename The path to the image file.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public static Image load(String filename) throws IOException {
+        byte[] magic = new byte[MAGIC_LENGTH];
+        int read;
+        try (InputStream in = new FileInputStream(filename)) {
+            read = in.read(magic);
+        }
+        if (read == MAGIC_LENGTH && NetpbmImage.isNetpbmMagic(magic[0], magic[1])) {
+            return new NetpbmImage(filename);
+        }
+        if (isHuge(filename)) {
+            return new TiledImage(filename);
+        }
+        return new Image(filename);
+    }
+
+    /**
+     * Checks from its header whether an image file should be loaded as tiles rather than decoded in full.
+     *
+     * @param filename The path to the image file.
+     * @return True if the image should be loaded as a TiledImage.
+     * @throws IOException if the header of the file cannot be read.
+     */
+    private static boolean isHuge(String filename) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return TiledImage.shouldTile(reader, MAX_DECODED_PIXELS);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Loads an image file for conversion at the given resolution, decoding only as many pixels as the
+     * resolution needs. When every cell would cover more than MIN_CELL_SAMPLES pixels per side, the file is
+     * decoded with ImageReadParam.setSourceSubsampling by the largest power of two that keeps at least that
+     * many samples per cell side, so decoding does proportionally less work. A power-of-two factor keeps the
+     * padded size of the image an exact fraction of the full one, so the cell grid is unchanged. Formats that
+     * ImageIO cannot read (such as raw netpbm) and images that need no subsampling are loaded through
+     * load(String).
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The number of characters per row the image will be converted at.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public static Image load(String filename, int resolution) throws IOException {
+        return load(filename, resolution, 0);
+    }
+
+    /**
+     * Loads an image file for conversion of a region of it at the given resolution, as load(String, int)
+     * does for the whole image. The subsampling factor is chosen by the width of the region, so that a
+     * narrow region keeps enough samples per cell.
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The number of characters per row the region will be converted at.
+     * @param width      The width of the region in pixels of the file, or 0 for the whole image.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public static Image load(String filename, int resolution, int width) throws IOException {
+        return loadSubsampled(filename, subsamplingFactor(filename, resolution, width));
+    }
+
+    /**
+     * Loads an image file decoded with the given subsampling factor, as found by
+     * subsamplingFactor(String, int). A factor of 1, and formats that ImageIO cannot read, are loaded through
+     * load(String).
+     *
+     * @param filename The path to the image file.
+     * @param factor   The power-of-two factor to subsample the file by along each side.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public static Image loadSubsampled(String filename, int factor) throws IOException {
+        if (factor == 1) {
+            return load(filename);
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return load(filename);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return new Image(reader.read(0, param), factor);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Calculates from its header the subsampling factor to decode an image file at for the given resolution
+     * (see subsamplingFactor(int, int)). Different resolutions often share a factor, and so the same decode.
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The number of characters per row the image will be converted at.
+     * @return The subsampling factor, 1 when the image must be decoded in full or ImageIO cannot read it.
+     * @throws IOException if the header of the file cannot be read.
+     */
+    public static int subsamplingFactor(String filename, int resolution) throws IOException {
+        return subsamplingFactor(filename, resolution, 0);
+    }
+
+    /**
+     * Calculates the subsampling factor to decode an image file at for converting a region of it at the given
+     * resolution. The factor is chosen by the width of the region; only when the whole image is converted is
+     * its width read from the header of the file.
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The number of characters per row the region will be converted at.
+     * @param width      The width of the region in pixels of the file, or 0 for the whole image.
+     * @return The subsampling factor, 1 when the image must be decoded in full or ImageIO cannot read it.
+     * @throws IOException if the header of the file cannot be read.
+     */
+    public static int subsamplingFactor(String filename, int resolution, int width) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new File(filename))) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return 1;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int regionWidth = width > 0 ? width : reader.getWidth(0);
+                return subsamplingFactor(PaddingImage.updateNumberToPowerOfTwo(regionWidth), resolution);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Calculates the subsampling factor to decode an image at for the given resolution: the largest power of
+     * two that leaves at least MIN_CELL_SAMPLES decoded samples along each side of a cell.
+     *
+     * @param paddedWidth The width of the fully decoded image after padding to a power of two.
+     * @param resolution  The number of characters per row.
+     * @return The subsampling factor, 1 when the image must be decoded in full.
+     */
+    public static int subsamplingFactor(int paddedWidth, int resolution) {
+        int cellSize = paddedWidth / resolution;
+        return Integer.highestOneBit(Math.max(1, cellSize / MIN_CELL_SAMPLES));
+    }
+
+    /**
+     * Reads an image file through ImageIO.
+     *
+     * @param filename The path to the image file.
+     * @return The decoded image.
+     * @throws IOException if the file cannot be read or its format is not supported.
+     */
+    private static BufferedImage readBufferedImage(String filename) throws IOException {
+        BufferedImage im = ImageIO.read(new File(filename));
+        if (im == null) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        return im;
+    }
+
+    /**
+     * Extracts the packed ARGB pixels of a BufferedImage, reading its DataBuffer in bulk when the layout is
+     * known.
+     *
+     * @param im The decoded image.
+     * @return The packed ARGB pixels, stored row by row.
+     */
+    static int[] decodePixels(BufferedImage im) {
+        int width = im.getWidth();
+        int height = im.getHeight();
+        int[] pixels = new int[width * height];
+        Raster raster = im.getRaster();
+        boolean untranslated = raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+        if (untranslated) {
+            switch (im.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                    copyPackedInts(raster, pixels, width, height, OPAQUE_ALPHA);
+                    return pixels;
+                case BufferedImage.TYPE_INT_ARGB:
+                    copyPackedInts(raster, pixels, width, height, 0);
+                    return pixels;
+                case BufferedImage.TYPE_3BYTE_BGR:
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    copyInterleavedBytes(raster, pixels, width, height);
+                    return pixels;
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    copyGrayBytes(raster, im.getColorModel(), pixels, width, height);
+                    return pixels;
+                default:
+                    break;
+            }
+        }
+        // Exotic color models: let AWT convert, still in one call rather than once per pixel.
+        im.getRGB(0, 0, width, height, pixels, 0, width);
+        return pixels;
+    }
+
+    /**
+     * Copies an int-packed raster (one ARGB or RGB int per pixel) into the pixel array.
+     *
+     * @param raster    The source raster.
+     * @param pixels    The destination pixel array.
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param alphaBits Bits OR-ed into every pixel, used to make RGB rasters opaque.
+     */
+    private static void copyPackedInts(Raster raster, int[] pixels, int width, int height, int alphaBits) {
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int[] data = buffer.getData();
+        int scanline = sampleModel.getScanlineStride();
+        for (int i = 0; i < height; i++) {
+            int src = buffer.getOffset() + i * scanline;
+            int dst = i * width;
+            if (alphaBits == 0) {
+                System.arraycopy(data, src, pixels, dst, width);
+            } else {
+                for (int j = 0; j < width; j++) {
+                    pixels[dst + j] = data[src + j] | alphaBits;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a byte-interleaved RGB or RGBA raster (such as TYPE_3BYTE_BGR or TYPE_4BYTE_ABGR) into the pixel
+     * array, honoring the band offsets of the sample model.
+     *
+     * @param raster The source raster.
+     * @param pixels The destination pixel array.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    private static void copyInterleavedBytes(Raster raster, int[] pixels, int width, int height) {
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        byte[] data = buffer.getData();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        int scanline = sampleModel.getScanlineStride();
+        boolean hasAlpha = bandOffsets.length > 3;
+        for (int i = 0; i < height; i++) {
+            int src = buffer.getOffset() + i * scanline;
+            int dst = i * width;
+            for (int j = 0; j < width; j++, src += pixelStride) {
+                int alpha = hasAlpha ? data[src + bandOffsets[3]] & BYTE_MASK : BYTE_MASK;
+                pixels[dst + j] = alpha << 24
+                        | (data[src + bandOffsets[0]] & BYTE_MASK) << 16
+                        | (data[src + bandOffsets[1]] & BYTE_MASK) << 8
+                        | (data[src + bandOffsets[2]] & BYTE_MASK);
+            }
+        }
+    }
+
+    /**
+     * Copies an 8-bit gray raster into the pixel array. The gray to RGB conversion of the color model is
+     * evaluated once per gray level, so results match BufferedImage.getRGB exactly.
+     *
+     * @param raster     The source raster.
+     * @param colorModel The color model of the image.
+     * @param pixels     The destination pixel array.
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     */
+    private static void copyGrayBytes(Raster raster, ColorModel colorModel, int[] pixels, int width,
+                                      int height) {
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        byte[] data = buffer.getData();
+        int pixelStride = sampleModel.getPixelStride();
+        int scanline = sampleModel.getScanlineStride();
+        int[] grayToRgb = new int[BYTE_VALUES];
+        for (int level = 0; level < BYTE_VALUES; level++) {
+            grayToRgb[level] = colorModel.getRGB(new byte[] {(byte) level});
+        }
+        for (int i = 0; i < height; i++) {
+            int src = buffer.getOffset() + i * scanline + sampleModel.getBandOffsets()[0];
+            int dst = i * width;
+            for (int j = 0; j < width; j++, src += pixelStride) {
+                pixels[dst + j] = grayToRgb[data[src] & BYTE_MASK];
+            }
+        }
+    }
+
+    /**
+     * Gets the factor by which the source file was subsampled when decoded into this image. Each pixel of the
+     * image stands for a square of that many source pixels per side.
+     *
+     * @return The subsampling factor, 1 for a full decode.
+     */
+    public int getSubsampling() {
+        return subsampling;
     }
 
     /**
@@ -82,7 +541,364 @@ public class Image {
      * @return The Color of the specified pixel.
      */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * Retrieves the packed ARGB value of the pixel at the specified row and column.
+     *
+     * @param row The row of the pixel.
+     * @param col The column of the pixel.
+     * @return The packed ARGB value of the specified pixel.
+     */
+    public int getRGB(int row, int col) {
+        return pixels[row * width + col];
+    }
+
+    /**
+     * Copies a horizontal run of pixels of the image into the given array.
+     *
+     * @param row       The row of the run.
+     * @param col       The first column of the run.
+     * @param length    The number of pixels to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied pixel.
+     */
+    public void copyRow(int row, int col, int length, int[] dst, int dstOffset) {
+        System.arraycopy(pixels, row * width + col, dst, dstOffset, length);
+    }
+
+    /**
+     * Gives direct access to the packed ARGB pixel array of the image, stored row by row.
+     * Intended for hot paths; callers must not modify the returned array. An image whose pixels are kept in
+     * another form by a subclass (a mapped file, decoded tiles, a region of another image) builds a packed
+     * copy through copyRow on the first call, which reads every pixel and is kept until release().
+     *
+     * @return The packed ARGB pixel array.
+     */
+    public int[] getPixels() {
+        if (pixels != null) {
+            return pixels;
+        }
+        int[] copy = packedPixels;
+        if (copy == null) {
+            synchronized (this) {
+                copy = packedPixels;
+                if (copy == null) {
+                    copy = new int[width * height];
+                    for (int i = 0; i < height; i++) {
+                        copyRow(i, 0, width, copy, i * width);
+                    }
+                    packedPixels = copy;
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the kernel used to convert the pixels of the image to luminance values.
+     *
+     * @return The luminance kernel of the image.
+     */
+    public LuminanceMode getLuminanceMode() {
+        return luminanceMode;
+    }
+
+    /**
+     * Selects the kernel used to convert the pixels of the image to luminance values. Changing the kernel
+     * releases the cached luminance plane, summed-area table and brightness pyramid, which are rebuilt on
+     * next use.
+     *
+     * @param luminanceMode The luminance kernel to use.
+     */
+    public void setLuminanceMode(LuminanceMode luminanceMode) {
+        if (this.luminanceMode != luminanceMode) {
+            this.luminanceMode = luminanceMode;
+            release();
+        }
+    }
+
+    /**
+     * Checks whether the luminance plane, summed-area table and brightness pyramid of the image are kept off
+     * the Java heap.
+     *
+     * @return True if the tables are kept in direct memory.
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Selects whether the luminance plane, summed-area table and brightness pyramid of the image are kept off
+     * the Java heap, in direct memory. Off-heap tables let very large images be converted without a matching
+     * heap size and keep them out of the garbage collector's work; they are freed by release(). Changing the
+     * setting releases the current tables, which are rebuilt on next use.
+     *
+     * @param offHeap True to keep the tables in direct memory.
+     */
+    public void setOffHeap(boolean offHeap) {
+        if (this.offHeap != offHeap) {
+            this.offHeap = offHeap;
+            release();
+        }
+    }
+
+    /**
+     * Releases the luminance plane, summed-area table and brightness pyramid of the image and the packed copy
+     * of the pixels of a subclass, freeing their off-heap memory immediately. The image stays usable; the
+     * tables are rebuilt if they are needed again.
+     */
+    public void release() {
+        packedPixels = null;
+        if (offHeapLuminance != null) {
+            offHeapLuminance.release();
+            offHeapLuminance = null;
+        }
+        if (integralImage != null) {
+            integralImage.release();
+            integralImage = null;
+        }
+        luminance = null;
+        if (luminancePyramid != null) {
+            luminancePyramid.release();
+            luminancePyramid = null;
+        }
+    }
+
+    /**
+     * Releases the tables of the image that are kept off the heap, freeing their direct memory immediately.
+     * The pixels and the heap tables are kept, so an image that stops being the current one but stays cached
+     * gives its native memory back right away and only rebuilds its off-heap tables if it is used again.
+     * Must not be called while the image is being converted.
+     */
+    public void releaseOffHeap() {
+        if (offHeapLuminance != null) {
+            offHeapLuminance.release();
+            offHeapLuminance = null;
+        }
+        if (offHeap && integralImage != null) {
+            integralImage.release();
+            integralImage = null;
+        }
+        if (isPyramidOffHeap() && luminancePyramid != null) {
+            luminancePyramid.release();
+            luminancePyramid = null;
+        }
+    }
+
+    /**
+     * Copies a horizontal run of the luminance plane of the image into the given array. The luminance plane
+     * holds the grayscale value (Rec.709 weights, between 0 and getMaxLuminance() of the selected kernel) of
+     * every pixel, computed with the selected luminance kernel. It is computed on first use and cached, since
+     * the pixels of an image never change; every brightness consumer should read from it rather than
+     * converting pixels itself.
+     *
+     * @param row       The row of the run.
+     * @param col       The first column of the run.
+     * @param length    The number of values to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied value.
+     */
+    public void copyLuminanceRow(int row, int col, int length, double[] dst, int dstOffset) {
+        buildLuminance();
+        if (offHeapLuminance != null) {
+            offHeapLuminance.getDoubles(row, col, length, dst, dstOffset);
+        } else {
+            System.arraycopy(luminance, row * width + col, dst, dstOffset, length);
+        }
+    }
+
+    /**
+     * Retrieves the luminance of the pixel at the specified row and column.
+     *
+     * @param row The row of the pixel.
+     * @param col The column of the pixel.
+     * @return The grayscale value of the specified pixel, between 0 and getMaxLuminance() of the kernel.
+     */
+    public double getLuminance(int row, int col) {
+        buildLuminance();
+        if (offHeapLuminance != null) {
+            return offHeapLuminance.getDouble(row, col);
+        }
+        return luminance[row * width + col];
+    }
+
+    /**
+     * Computes the luminance plane of the image, on the heap or off it, unless it is already cached. Safe to
+     * call from several threads; the plane is built once.
+     */
+    private void buildLuminance() {
+        if (luminance == null && offHeapLuminance == null) {
+            synchronized (this) {
+                if (luminance == null && offHeapLuminance == null) {
+                    computeLuminance();
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the luminance plane of the image, on the heap or off it.
+     */
+    private void computeLuminance() {
+        if (!offHeap && pixels != null) {
+            double[] plane = new double[width * height];
+            luminanceMode.toLuminance(pixels, 0, plane, 0, plane.length);
+            luminance = plane;
+            return;
+        }
+        int[] rowPixels = new int[width];
+        double[] rowLuminance = new double[width];
+        double[] plane = offHeap ? null : new double[width * height];
+        OffHeapGrid grid = offHeap ? new OffHeapGrid(height, width) : null;
+        for (int i = 0; i < height; i++) {
+            copyRow(i, 0, width, rowPixels, 0);
+            if (offHeap) {
+                luminanceMode.toLuminance(rowPixels, 0, rowLuminance, 0, width);
+                grid.putDoubleRow(i, rowLuminance);
+            } else {
+                luminanceMode.toLuminance(rowPixels, 0, plane, i * width, width);
+            }
+        }
+        luminance = plane;
+        offHeapLuminance = grid;
+    }
+
+    /**
+     * Retrieves the summed-area table of the grayscale values of the image, building it on first use.
+     * Later calls return the same table, so brightness queries after the first one cost O(1) per cell. Safe
+     * to call from several threads; the table is built once.
+     *
+     * @return The summed-area table of the image.
+     */
+    public IntegralImage getIntegralImage() {
+        if (integralImage == null) {
+            synchronized (this) {
+                if (integralImage == null) {
+                    integralImage = new IntegralImage(this, offHeap);
+                }
+            }
+        }
+        return integralImage;
+    }
+
+    /**
+     * Calculates the sum of the grayscale values over a rectangle of the image through its summed-area
+     * table. The rectangle must lie inside the image.
+     *
+     * @param row    The top row of the rectangle.
+     * @param col    The left column of the rectangle.
+     * @param height The height of the rectangle.
+     * @param width  The width of the rectangle.
+     * @return The sum of the grayscale values of the pixels in the rectangle.
+     */
+    public double sumLuminance(int row, int col, int height, int width) {
+        return getIntegralImage().sum(row, col, height, width);
+    }
+
+    /**
+     * Calculates the sum of the grayscale values over a rectangle with fractional edges through the
+     * summed-area table, weighting every pixel by the part of it the rectangle covers. The rectangle must
+     * lie inside the image.
+     *
+     * @param top    The top edge of the rectangle, between 0 and the height of the image.
+     * @param left   The left edge of the rectangle, between 0 and the width of the image.
+     * @param bottom The bottom edge of the rectangle, no smaller than top.
+     * @param right  The right edge of the rectangle, no smaller than left.
+     * @return The coverage-weighted sum of the grayscale values of the pixels under the rectangle.
+     */
+    public double sumLuminance(double top, double left, double bottom, double right) {
+        return getIntegralImage().sum(top, left, bottom, right);
+    }
+
+    /**
+     * Retrieves the brightness pyramid of the image padded to power of two dimensions, building it on first
+     * use. Later calls return the same pyramid, so the brightness grid of any resolution is then available
+     * without another pass over the pixels.
+     *
+     * @return The brightness pyramid of the padded image.
+     */
+    public LuminancePyramid getLuminancePyramid() {
+        return getLuminancePyramid(null);
+    }
+
+    /**
+     * Retrieves the brightness pyramid of the image padded to power of two dimensions, building it in row
+     * bands on the given pool on first use.
+     *
+     * @param pool The pool to build the pyramid on, or null to build it on the calling thread.
+     * @return The brightness pyramid of the padded image.
+     */
+    public LuminancePyramid getLuminancePyramid(ForkJoinPool pool) {
+        synchronized (pyramidLock) {
+            if (luminancePyramid == null) {
+                luminancePyramid = new LuminancePyramid(new PaddingImage(this), pool, isPyramidOffHeap());
+            }
+            return luminancePyramid;
+        }
+    }
+
+    /**
+     * Checks whether the brightness pyramid of the image is kept off the Java heap: when the image is
+     * off-heap. Subclasses whose pixels are not held on the heap may keep it there regardless.
+     *
+     * @return True if the levels of the pyramid are kept in direct memory.
+     */
+    protected boolean isPyramidOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Retrieves a view of a region of the image, given in pixels of the image file, so that a conversion of
+     * the region costs in proportion to its area (see CroppedImage). In a subsampled image the region is
+     * widened to whole subsampled pixels. Every call returns a new view, with the luminance kernel and
+     * off-heap setting the image has at the time and tables of its own; the caller owns the view, keeps it
+     * for as long as its tables are worth reusing and releases it when done.
+     *
+     * @param region The region, in pixels of the image file.
+     * @return The view of the region.
+     * @throws IllegalArgumentException if the region is empty or does not lie inside the image.
+     */
+    public Image crop(Rectangle region) {
+        if (region.x < 0 || region.y < 0 || region.isEmpty() || region.x + region.width > width * subsampling
+                || region.y + region.height > height * subsampling) {
+            throw new IllegalArgumentException("Region " + region.width + "x" + region.height + " at ("
+                    + region.x + ", " + region.y + ") does not lie inside the image");
+        }
+        int top = region.y / subsampling;
+        int left = region.x / subsampling;
+        int bottom = Math.min(height, (region.y + region.height + subsampling - 1) / subsampling);
+        int right = Math.min(width, (region.x + region.width + subsampling - 1) / subsampling);
+        return new CroppedImage(this, top, left, bottom - top, right - left);
+    }
+
+    /**
+     * Estimates the memory held by the image, on and off the heap: its pixels (or their packed copy, if a
+     * subclass built one) and whichever of the luminance plane, summed-area table and brightness pyramid have
+     * been built so far.
+     *
+     * @return The estimated memory footprint of the image, in bytes.
+     */
+    public long getMemoryFootprint() {
+        long bytes = pixels == null ? 0 : (long) Integer.BYTES * pixels.length;
+        int[] copy = packedPixels;
+        if (copy != null) {
+            bytes += (long) Integer.BYTES * copy.length;
+        }
+        if (luminance != null) {
+            bytes += (long) Double.BYTES * luminance.length;
+        }
+        if (offHeapLuminance != null) {
+            bytes += offHeapLuminance.getBytes();
+        }
+        if (integralImage != null) {
+            bytes += integralImage.getMemoryFootprint();
+        }
+        if (luminancePyramid != null) {
+            bytes += luminancePyramid.getMemoryFootprint();
+        }
+        return bytes;
     }
 
     /**
@@ -92,15 +908,9 @@ public class Image {
      * @throws RuntimeException if an error occurs during image saving.
      */
     public void saveImage(String fileName) {
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray.length, pixelArray[0].length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-            }
-        }
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        // Copy the packed pixels into the BufferedImage in one call.
+        bufferedImage.setRGB(0, 0, width, height, getPixels(), 0, width);
         File outputfile = new File(fileName + ".jpeg");
         try {
             ImageIO.write(bufferedImage, "jpeg", outputfile);
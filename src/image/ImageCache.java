@@ -0,0 +1,178 @@
+package image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of loaded images, so that switching back to a recently used image file does not decode it
+ * again or rebuild its luminance plane, summed-area table and brightness pyramid.
+ * Entries are keyed by the canonical path, size and modification time of the file, together with the
+ * subsampling factor the image was decoded with, so a file that changes on disk is never served stale and
+ * resolutions that decode the file alike share one entry. The cache is weighted by the memory each image
+ * holds on and off the heap (which grows as its derived tables are built) and evicts the least recently used
+ * images once the total exceeds the byte budget, releasing their tables so that off-heap memory is freed
+ * right away. An image that stops being used but stays cached keeps its off-heap tables until it is evicted,
+ * unless the caller frees them through Image.releaseOffHeap, as the shell does when it switches images. Hits
+ * and misses are counted so the budget can be sized.
+ */
+public class ImageCache {
+
+    /**
+     * Separator between the parts of a cache key.
+     */
+    private static final char KEY_SEPARATOR = '\0';
+
+    /**
+     * The cached images, in least recently used first order.
+     */
+    private final LinkedHashMap<String, Image> images;
+
+    /**
+     * The maximum total memory footprint of the cached images, in bytes.
+     */
+    private long budget;
+
+    /**
+     * Number of loads served from the cache.
+     */
+    private int hits;
+
+    /**
+     * Number of loads that had to read the file.
+     */
+    private int misses;
+
+    /**
+     * Constructs an empty ImageCache with the given byte budget.
+     *
+     * @param budget The maximum total memory footprint of the cached images, in bytes.
+     */
+    public ImageCache(long budget) {
+        this.images = new LinkedHashMap<>(16, 0.75f, true);
+        this.budget = budget;
+    }
+
+    /**
+     * Loads an image file, returning the cached image if the same file, unchanged since, was decoded with the
+     * same subsampling factor before. The factor is worked out from the header of the file, so a full load
+     * and a resolution that needs no subsampling share an entry, as do resolutions that subsample alike.
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The resolution to decode the image for (see Image.load(String, int)), or 0 to decode
+     *                   it in full.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public Image load(String filename, int resolution) throws IOException {
+        return load(filename, resolution, 0);
+    }
+
+    /**
+     * Loads an image file for conversion of a region of it, as load(String, int) does for the whole image.
+     * The subsampling factor is chosen by the width of the region (see Image.load(String, int, int)).
+     *
+     * @param filename   The path to the image file.
+     * @param resolution The resolution the region will be converted at, or 0 to decode the image in full.
+     * @param width      The width of the region in pixels of the file, or 0 for the whole image.
+     * @return The loaded image.
+     * @throws IOException if an I/O error occurs during reading the image file.
+     */
+    public Image load(String filename, int resolution, int width) throws IOException {
+        File file = new File(filename);
+        int factor = resolution > 0 ? Image.subsamplingFactor(filename, resolution, width) : 1;
+        String key = file.getCanonicalPath() + KEY_SEPARATOR + file.length() + KEY_SEPARATOR
+                + file.lastModified() + KEY_SEPARATOR + factor;
+        Image image = images.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+            image = Image.loadSubsampled(filename, factor);
+            images.put(key, image);
+        }
+        trim(image);
+        return image;
+    }
+
+    /**
+     * Changes the byte budget, evicting least recently used images if the cache now exceeds it.
+     *
+     * @param budget The maximum total memory footprint of the cached images, in bytes.
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        trim(null);
+    }
+
+    /**
+     * Gets the byte budget of the cache.
+     *
+     * @return The maximum total memory footprint of the cached images, in bytes.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets the number of loads served from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of loads that had to read the file.
+     *
+     * @return The number of cache misses.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of cached images.
+     *
+     * @return The number of cached images.
+     */
+    public int size() {
+        return images.size();
+    }
+
+    /**
+     * Gets the current total memory footprint of the cached images. Footprints grow as the derived tables of
+     * an image are built, so this is measured anew on each call.
+     *
+     * @return The total memory footprint of the cached images, in bytes.
+     */
+    public long getMemoryFootprint() {
+        long total = 0;
+        for (Image image : images.values()) {
+            total += image.getMemoryFootprint();
+        }
+        return total;
+    }
+
+    /**
+     * Evicts least recently used images until the cache fits its budget. The given image, which is in use,
+     * is never evicted.
+     *
+     * @param inUse The image currently in use, or null.
+     */
+    private void trim(Image inUse) {
+        long total = getMemoryFootprint();
+        Iterator<Map.Entry<String, Image>> eldest = images.entrySet().iterator();
+        while (total > budget && eldest.hasNext()) {
+            Image image = eldest.next().getValue();
+            if (image != inUse) {
+                total -= image.getMemoryFootprint();
+                eldest.remove();
+                image.release();
+            }
+        }
+    }
+}
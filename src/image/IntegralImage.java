@@ -0,0 +1,170 @@
+package image;
+
+/**
+ * A summed-area table (integral image) of the grayscale values of an image.
+ * The table is built in a single pass over the luminance plane of the image; afterwards the sum of the
+ * grayscale values over any rectangle of the image is available in constant time, which makes the mean
+ * brightness of any cell O(1) regardless of its size. The table is kept either on the heap or, for very large
+ * images, off the heap in direct memory that is freed by release().
+ */
+public class IntegralImage {
+
+    /**
+     * Width of the image the table was built from.
+     */
+    private final int width;
+
+    /**
+     * Height of the image the table was built from.
+     */
+    private final int height;
+
+    /**
+     * The table itself, of size (height + 1) x (width + 1), stored row by row. Entry (i, j) holds the sum of
+     * the grayscale values of all pixels above row i and left of column j. Null when the table is off-heap.
+     */
+    private final double[] sums;
+
+    /**
+     * The table kept off the heap, with the same layout as sums. Null when the table is on the heap.
+     */
+    private OffHeapGrid offHeapSums;
+
+    /**
+     * Builds the summed-area table of the given image on the heap.
+     *
+     * @param image The image to build the table from.
+     */
+    public IntegralImage(Image image) {
+        this(image, false);
+    }
+
+    /**
+     * Builds the summed-area table of the given image.
+     *
+     * @param image   The image to build the table from.
+     * @param offHeap True to keep the table in direct memory rather than on the heap.
+     */
+    public IntegralImage(Image image, boolean offHeap) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        int stride = width + 1;
+        this.sums = offHeap ? null : new double[(height + 1) * stride];
+        this.offHeapSums = offHeap ? new OffHeapGrid(height + 1, stride) : null;
+        double[] luminance = new double[width];
+        double[] above = new double[stride];
+        double[] current = new double[stride];
+        for (int i = 0; i < height; i++) {
+            image.copyLuminanceRow(i, 0, width, luminance, 0);
+            double rowSum = 0;
+            for (int j = 0; j < width; j++) {
+                rowSum += luminance[j];
+                current[j + 1] = above[j + 1] + rowSum;
+            }
+            if (offHeap) {
+                offHeapSums.putDoubleRow(i + 1, current);
+            } else {
+                System.arraycopy(current, 0, sums, (i + 1) * stride, stride);
+            }
+            double[] swap = above;
+            above = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Gets the memory held by the table, on or off the heap.
+     *
+     * @return The size of the table, in bytes.
+     */
+    public long getMemoryFootprint() {
+        if (offHeapSums != null) {
+            return offHeapSums.getBytes();
+        }
+        return sums == null ? 0 : (long) Double.BYTES * sums.length;
+    }
+
+    /**
+     * Frees the off-heap memory of the table, if any. The table must not be used afterwards.
+     */
+    public void release() {
+        if (offHeapSums != null) {
+            offHeapSums.release();
+            offHeapSums = null;
+        }
+    }
+
+    /**
+     * Calculates the sum of the grayscale values over a rectangle of the image.
+     * The rectangle must lie inside the image.
+     *
+     * @param row    The top row of the rectangle.
+     * @param col    The left column of the rectangle.
+     * @param height The height of the rectangle.
+     * @param width  The width of the rectangle.
+     * @return The sum of the grayscale values of the pixels in the rectangle.
+     */
+    public double sum(int row, int col, int height, int width) {
+        if (offHeapSums != null) {
+            int bottom = row + height;
+            return offHeapSums.getDouble(bottom, col + width) - offHeapSums.getDouble(bottom, col)
+                    - offHeapSums.getDouble(row, col + width) + offHeapSums.getDouble(row, col);
+        }
+        int stride = this.width + 1;
+        int top = row * stride;
+        int bottom = (row + height) * stride;
+        return sums[bottom + col + width] - sums[bottom + col] - sums[top + col + width] + sums[top + col];
+    }
+
+    /**
+     * Calculates the integral of the grayscale values over a rectangle with fractional edges, weighting every
+     * pixel by the part of it the rectangle covers. Within each pixel the integral from the origin grows
+     * bilinearly, so it is exactly the bilinear interpolation of the table; the rectangle sum then follows
+     * from its four corners as for integer edges. The rectangle must lie inside the image.
+     *
+     * @param top    The top edge of the rectangle, between 0 and the height of the image.
+     * @param left   The left edge of the rectangle, between 0 and the width of the image.
+     * @param bottom The bottom edge of the rectangle, no smaller than top.
+     * @param right  The right edge of the rectangle, no smaller than left.
+     * @return The coverage-weighted sum of the grayscale values of the pixels under the rectangle.
+     */
+    public double sum(double top, double left, double bottom, double right) {
+        return integral(bottom, right) - integral(bottom, left) - integral(top, right) + integral(top, left);
+    }
+
+    /**
+     * Calculates the integral of the grayscale values from the origin up to a point with fractional
+     * coordinates, by bilinear interpolation of the table.
+     *
+     * @param row The row coordinate of the point, between 0 and the height of the image.
+     * @param col The column coordinate of the point, between 0 and the width of the image.
+     * @return The coverage-weighted sum of the grayscale values above and left of the point.
+     */
+    private double integral(double row, double col) {
+        int i = Math.min((int) row, Math.max(height - 1, 0));
+        int j = Math.min((int) col, Math.max(width - 1, 0));
+        double fi = row - i;
+        double fj = col - j;
+        double topLeft = entry(i, j);
+        double topRight = entry(i, j + 1);
+        double bottomLeft = entry(i + 1, j);
+        double bottomRight = entry(i + 1, j + 1);
+        double upper = topLeft + fj * (topRight - topLeft);
+        double lower = bottomLeft + fj * (bottomRight - bottomLeft);
+        return upper + fi * (lower - upper);
+    }
+
+    /**
+     * Reads an entry of the table, on or off the heap.
+     *
+     * @param row The row of the entry, between 0 and the height of the image.
+     * @param col The column of the entry, between 0 and the width of the image.
+     * @return The sum of the grayscale values of all pixels above row and left of col.
+     */
+    private double entry(int row, int col) {
+        if (offHeapSums != null) {
+            return offHeapSums.getDouble(row, col);
+        }
+        return sums[row * (width + 1) + col];
+    }
+}
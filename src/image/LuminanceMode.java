@@ -0,0 +1,156 @@
+package image;
+
+/**
+ * The kernels available for converting packed ARGB pixels to luminance (grayscale) values.
+ * Both kernels use the Rec.709 weights. EXACT evaluates them in double precision, as the conversion always
+ * did, in gray levels from 0 to 255; FAST evaluates them in integers through three 256-entry lookup tables,
+ * one per color component, so each pixel costs three table reads and two integer additions.
+ * The Rec.709 weights are whole multiples of 1/FIXED_SCALE, so FAST counts luminance in units of
+ * 1/FIXED_SCALE of a gray level and holds the weights without rounding: every FAST value is an integer, sums
+ * of up to 2^53 / getMaxLuminance() (about 3.5 billion) FAST values are exact in a double, and the FAST
+ * brightness of a cell is its exact Rec.709 mean, rounded once. EXACT rounds every operation instead, so the
+ * two kernels give the same characters unless a mean lies within EXACT's rounding error of the tie between
+ * two characters. Values are given in the units of their kernel; dividing a mean by getMaxLuminance() gives
+ * the brightness, between 0 and 1.
+ */
+public enum LuminanceMode {
+
+    /**
+     * Double precision Rec.709 weighting of every pixel.
+     */
+    EXACT,
+
+    /**
+     * Integer Rec.709 weighting through per-component lookup tables, in units of 1/FIXED_SCALE gray level.
+     */
+    FAST;
+
+    /**
+     * The weight of the red component in calculating grayscale brightness.
+     */
+    private static final double RED_WEIGHT = 0.2126;
+
+    /**
+     * The weight of the green component in calculating grayscale brightness.
+     */
+    private static final double GREEN_WEIGHT = 0.7152;
+
+    /**
+     * The weight of the blue component in calculating grayscale brightness.
+     */
+    private static final double BLUE_WEIGHT = 0.0722;
+
+    /**
+     * Bit mask extracting a single 8-bit color component from a packed ARGB value.
+     */
+    private static final int COMPONENT_MASK = 0xFF;
+
+    /**
+     * The maximum value of an RGB color component: the luminance of white, in gray levels.
+     */
+    private static final int MAX_RGB_NUM = 255;
+
+    /**
+     * Number of FAST luminance units per gray level. Every Rec.709 weight is a whole number of units.
+     */
+    private static final int FIXED_SCALE = 10000;
+
+    /**
+     * FAST red contribution of every 8-bit red value.
+     */
+    private static final int[] RED_TABLE = weightTable(RED_WEIGHT);
+
+    /**
+     * FAST green contribution of every 8-bit green value.
+     */
+    private static final int[] GREEN_TABLE = weightTable(GREEN_WEIGHT);
+
+    /**
+     * FAST blue contribution of every 8-bit blue value.
+     */
+    private static final int[] BLUE_TABLE = weightTable(BLUE_WEIGHT);
+
+    /**
+     * Gets the luminance of white under this kernel, in its units: a mean luminance divided by it is the
+     * brightness, between 0 and 1.
+     *
+     * @return 255 for EXACT, 255 * FIXED_SCALE for FAST.
+     */
+    public double getMaxLuminance() {
+        return this == FAST ? MAX_RGB_NUM * FIXED_SCALE : MAX_RGB_NUM;
+    }
+
+    /**
+     * Calculates the luminance of the given packed ARGB value with this kernel.
+     *
+     * @param rgb The packed ARGB value.
+     * @return The grayscale value, between 0 and getMaxLuminance().
+     */
+    public double luminance(int rgb) {
+        if (this == FAST) {
+            return fixedLuminance(rgb);
+        }
+        return exactLuminance(rgb);
+    }
+
+    /**
+     * Converts a run of packed ARGB pixels to luminance values with this kernel, between 0 and
+     * getMaxLuminance().
+     *
+     * @param pixels    The packed ARGB pixels.
+     * @param offset    The index of the first pixel to convert.
+     * @param plane     The destination luminance array.
+     * @param dstOffset The index in the destination array of the first converted value.
+     * @param length    The number of pixels to convert.
+     */
+    public void toLuminance(int[] pixels, int offset, double[] plane, int dstOffset, int length) {
+        if (this == FAST) {
+            for (int i = 0; i < length; i++) {
+                plane[dstOffset + i] = fixedLuminance(pixels[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                plane[dstOffset + i] = exactLuminance(pixels[offset + i]);
+            }
+        }
+    }
+
+    /**
+     * Calculates the grayscale value of a packed ARGB value in double precision.
+     *
+     * @param rgb The packed ARGB value.
+     * @return The grayscale value, between 0 and 255.
+     */
+    public static double exactLuminance(int rgb) {
+        int red = (rgb >> 16) & COMPONENT_MASK;
+        int green = (rgb >> 8) & COMPONENT_MASK;
+        int blue = rgb & COMPONENT_MASK;
+        return red * RED_WEIGHT + green * GREEN_WEIGHT + blue * BLUE_WEIGHT;
+    }
+
+    /**
+     * Calculates the grayscale value of a packed ARGB value in integer units of 1/FIXED_SCALE gray level.
+     *
+     * @param rgb The packed ARGB value.
+     * @return The grayscale value multiplied by FIXED_SCALE, exactly.
+     */
+    public static int fixedLuminance(int rgb) {
+        return RED_TABLE[(rgb >> 16) & COMPONENT_MASK] + GREEN_TABLE[(rgb >> 8) & COMPONENT_MASK]
+                + BLUE_TABLE[rgb & COMPONENT_MASK];
+    }
+
+    /**
+     * Builds the integer lookup table of one color component.
+     *
+     * @param weight The Rec.709 weight of the component, a whole multiple of 1/FIXED_SCALE.
+     * @return The contribution of every 8-bit value of the component, in units of 1/FIXED_SCALE.
+     */
+    private static int[] weightTable(double weight) {
+        int units = (int) Math.round(weight * FIXED_SCALE);
+        int[] table = new int[COMPONENT_MASK + 1];
+        for (int value = 0; value <= COMPONENT_MASK; value++) {
+            table[value] = value * units;
+        }
+        return table;
+    }
+}
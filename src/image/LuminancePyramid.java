@@ -0,0 +1,214 @@
+package image;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A mip pyramid of the brightness of a padded image.
+ * A padded image has power of two dimensions and every legal cell size is a power of two, so the brightness
+ * grid for cells of size 2^k is exactly level k of the pyramid, where each level holds the 2x2 averages of
+ * the level below. The pyramid is built once per image; afterwards the brightness grid of any resolution is
+ * returned without touching a single pixel. Levels can be built in row bands on a ForkJoinPool, with the same
+ * result as a serial build. Levels are built a row at a time from the two rows below them, straight into
+ * their storage, which is direct memory for an off-heap pyramid; the heap then only holds a few rows per
+ * band, whatever the size of the image.
+ */
+public class LuminancePyramid {
+
+    /**
+     * The averaging factor of a 2x2 block.
+     */
+    private static final double QUARTER = 0.25;
+
+    /**
+     * The padded image the pyramid was built from.
+     */
+    private final PaddingImage paddingImage;
+
+    /**
+     * Whether the levels are kept off the Java heap.
+     */
+    private final boolean offHeap;
+
+    /**
+     * The levels of the pyramid, starting from cells of size 2. Level k (at index k - 1) holds the mean
+     * brightness, between 0 and 1, of every 2^k x 2^k cell.
+     */
+    private final ArrayList<CellGrid> levels;
+
+    /**
+     * The brightness of every single pixel of the padded image, built on first request for cells of size 1.
+     */
+    private CellGrid pixelLevel;
+
+    /**
+     * Builds the brightness pyramid of the given padded image, up to cells as large as the smaller side of
+     * the image.
+     *
+     * @param paddingImage The padded image to build the pyramid of.
+     */
+    public LuminancePyramid(PaddingImage paddingImage) {
+        this(paddingImage, null, false);
+    }
+
+    /**
+     * Builds the brightness pyramid of the given padded image, up to cells as large as the smaller side of
+     * the image, processing each level in row bands on the given pool.
+     *
+     * @param paddingImage The padded image to build the pyramid of.
+     * @param pool         The pool to build the levels on, or null to build them on the calling thread.
+     * @param offHeap      True to keep the levels in direct memory rather than on the heap.
+     * @throws IllegalStateException if the levels are kept on the heap and the first one is too large for a
+     *                               Java array.
+     */
+    public LuminancePyramid(PaddingImage paddingImage, ForkJoinPool pool, boolean offHeap) {
+        this.paddingImage = paddingImage;
+        this.offHeap = offHeap;
+        this.levels = new ArrayList<>();
+        int width = paddingImage.getWidth() / 2;
+        int height = paddingImage.getHeight() / 2;
+        if (width == 0 || height == 0) {
+            return;
+        }
+        levels.add(buildFirstLevel(width, height, pool));
+        while (width > 1 && height > 1) {
+            levels.add(reduce(levels.get(levels.size() - 1), width, height, pool));
+            width /= 2;
+            height /= 2;
+        }
+    }
+
+    /**
+     * Retrieves the brightness grid for cells of the given size: the mean brightness, between 0 and 1, of
+     * every cell of the padded image, with getHeight() / cellSize rows and getWidth() / cellSize columns.
+     * Cells of size 1 are single pixels, whose grid is computed on request rather than stored.
+     *
+     * @param cellSize The side of a cell, a power of two no larger than the smaller side of the image.
+     * @return The brightness grid for the given cell size, valid until the pyramid is released. Callers must
+     *         not modify its values.
+     * @throws IllegalArgumentException if the cell size is not a power of two or exceeds a side of the
+     *                                  image.
+     */
+    public synchronized CellGrid getBrightnessGrid(int cellSize) {
+        if (Integer.bitCount(cellSize) != 1 || cellSize > paddingImage.getWidth()
+                || cellSize > paddingImage.getHeight()) {
+            throw new IllegalArgumentException("Invalid cell size " + cellSize + " for a "
+                    + paddingImage.getWidth() + "x" + paddingImage.getHeight() + " image");
+        }
+        int level = Integer.numberOfTrailingZeros(cellSize);
+        if (level == 0) {
+            if (pixelLevel == null) {
+                pixelLevel = buildPixelLevel();
+            }
+            return pixelLevel;
+        }
+        return levels.get(level - 1);
+    }
+
+    /**
+     * Gets the memory held by the levels built so far, on or off the heap.
+     *
+     * @return The size of the built levels, in bytes.
+     */
+    public synchronized long getMemoryFootprint() {
+        long bytes = pixelLevel == null ? 0 : pixelLevel.getBytes();
+        for (CellGrid level : levels) {
+            bytes += level.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Frees the direct memory of the levels of an off-heap pyramid immediately. The pyramid and the grids it
+     * returned must not be used afterwards.
+     */
+    public synchronized void release() {
+        if (pixelLevel != null) {
+            pixelLevel.release();
+            pixelLevel = null;
+        }
+        for (CellGrid level : levels) {
+            level.release();
+        }
+        levels.clear();
+    }
+
+    /**
+     * Builds level 1 of the pyramid by averaging every 2x2 block of pixels of the padded image.
+     *
+     * @param width  The width of level 1.
+     * @param height The height of level 1.
+     * @param pool   The pool to build the level on, or null to build it on the calling thread.
+     * @return The brightness of every 2x2 cell.
+     */
+    private CellGrid buildFirstLevel(int width, int height, ForkJoinPool pool) {
+        CellGrid level = new CellGrid(height, width, offHeap);
+        double maxLuminance = paddingImage.getLuminanceMode().getMaxLuminance();
+        ParallelRows.forEachBand(pool, height, (from, to) -> {
+            double[] upper = new double[width * 2];
+            double[] lower = new double[width * 2];
+            double[] reduced = new double[width];
+            for (int i = from; i < to; i++) {
+                paddingImage.copyLuminanceRow(2 * i, 0, width * 2, upper, 0);
+                paddingImage.copyLuminanceRow(2 * i + 1, 0, width * 2, lower, 0);
+                for (int j = 0; j < width; j++) {
+                    double sum = upper[2 * j] + upper[2 * j + 1] + lower[2 * j] + lower[2 * j + 1];
+                    reduced[j] = sum * QUARTER / maxLuminance;
+                }
+                level.putRow(i, reduced);
+            }
+        });
+        return level;
+    }
+
+    /**
+     * Builds the next level of the pyramid by averaging every 2x2 block of the given level.
+     *
+     * @param below  The level to reduce.
+     * @param width  The width of the level to reduce.
+     * @param height The height of the level to reduce.
+     * @param pool   The pool to reduce the level on, or null to reduce it on the calling thread.
+     * @return The reduced level, half as wide and half as high.
+     */
+    private CellGrid reduce(CellGrid below, int width, int height, ForkJoinPool pool) {
+        int reducedWidth = width / 2;
+        CellGrid level = new CellGrid(height / 2, reducedWidth, offHeap);
+        ParallelRows.forEachBand(pool, height / 2, (from, to) -> {
+            double[] upper = new double[width];
+            double[] lower = new double[width];
+            double[] reduced = new double[reducedWidth];
+            for (int i = from; i < to; i++) {
+                below.copyRow(2 * i, upper);
+                below.copyRow(2 * i + 1, lower);
+                for (int j = 0; j < reducedWidth; j++) {
+                    double sum = upper[2 * j] + upper[2 * j + 1] + lower[2 * j] + lower[2 * j + 1];
+                    reduced[j] = sum * QUARTER;
+                }
+                level.putRow(i, reduced);
+            }
+        });
+        return level;
+    }
+
+    /**
+     * Builds the brightness grid of single pixels of the padded image, a row at a time.
+     *
+     * @return The brightness of every pixel of the padded image.
+     * @throws IllegalStateException if the levels are kept on the heap and the padded image is too large for
+     *                               a Java array.
+     */
+    private CellGrid buildPixelLevel() {
+        int width = paddingImage.getWidth();
+        CellGrid level = new CellGrid(paddingImage.getHeight(), width, offHeap);
+        double maxLuminance = paddingImage.getLuminanceMode().getMaxLuminance();
+        double[] row = new double[width];
+        for (int i = 0; i < paddingImage.getHeight(); i++) {
+            paddingImage.copyLuminanceRow(i, 0, width, row, 0);
+            for (int j = 0; j < width; j++) {
+                row[j] /= maxLuminance;
+            }
+            level.putRow(i, row);
+        }
+        return level;
+    }
+}
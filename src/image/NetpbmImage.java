@@ -0,0 +1,372 @@
+package image;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents a raw netpbm image (binary PGM "P5", binary PPM "P6" or PAM "P7") read in place from a
+ * memory-mapped file.
+ * The file is mapped with FileChannel.map and pixels are converted straight from the mapped buffer when they
+ * are requested, so loading costs only the header parse and no pixel data is copied onto the heap.
+ * Gray, gray with alpha, RGB and RGB with alpha tuples are supported, with 8-bit or 16-bit samples.
+ * release() unmaps the file along with the tables of the base class, the same way off-heap tables are freed;
+ * the file is mapped again if the pixels are needed afterwards.
+ */
+public class NetpbmImage extends Image {
+
+    /**
+     * Magic number of binary graymap (PGM) files.
+     */
+    private static final char GRAYMAP_MAGIC = '5';
+
+    /**
+     * Magic number of binary pixmap (PPM) files.
+     */
+    private static final char PIXMAP_MAGIC = '6';
+
+    /**
+     * Magic number of arbitrary map (PAM) files.
+     */
+    private static final char ARBITRARY_MAP_MAGIC = '7';
+
+    /**
+     * The largest sample value stored in a single byte.
+     */
+    private static final int MAX_BYTE_SAMPLE = 255;
+
+    /**
+     * Bit mask extracting an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * Bit mask extracting an unsigned 16-bit value.
+     */
+    private static final int SHORT_MASK = 0xFFFF;
+
+    /**
+     * Header keyword closing the header of a PAM file.
+     */
+    private static final String PAM_END_HEADER = "ENDHDR";
+
+    /**
+     * The path to the netpbm file.
+     */
+    private final String filename;
+
+    /**
+     * Size of the file when it was first mapped.
+     */
+    private final int fileSize;
+
+    /**
+     * The mapped contents of the file, or null after release() until the pixels are needed again. Volatile
+     * so that a mapping made by one thread is seen by the others.
+     */
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * Offset of the first pixel sample in the file.
+     */
+    private final int dataOffset;
+
+    /**
+     * Number of samples per pixel: 1 (gray), 2 (gray and alpha), 3 (RGB) or 4 (RGB and alpha).
+     */
+    private final int depth;
+
+    /**
+     * Number of bytes per sample: 1 when the maximum sample value fits in a byte, 2 otherwise.
+     */
+    private final int bytesPerSample;
+
+    /**
+     * The maximum sample value declared in the header.
+     */
+    private final int maxValue;
+
+    /**
+     * Constructs a NetpbmImage by mapping the given file and parsing its header.
+     *
+     * @param filename The path to the netpbm file.
+     * @throws IOException if the file cannot be mapped or its header is malformed.
+     */
+    public NetpbmImage(String filename) throws IOException {
+        this(new Header(map(filename), filename), filename);
+    }
+
+    /**
+     * Constructs a NetpbmImage from a parsed header.
+     *
+     * @param header   The parsed header, holding the mapped file.
+     * @param filename The path to the netpbm file.
+     */
+    private NetpbmImage(Header header, String filename) {
+        super(header.width, header.height);
+        this.filename = filename;
+        this.fileSize = header.buffer.capacity();
+        this.buffer = header.buffer;
+        this.dataOffset = header.position;
+        this.depth = header.depth;
+        this.maxValue = header.maxValue;
+        this.bytesPerSample = maxValue > MAX_BYTE_SAMPLE ? 2 : 1;
+    }
+
+    /**
+     * Checks whether the first two bytes of a file are the magic number of a supported netpbm format.
+     *
+     * @param first  The first byte of the file.
+     * @param second The second byte of the file.
+     * @return True if the file is a raw PGM, PPM or PAM file.
+     */
+    static boolean isNetpbmMagic(byte first, byte second) {
+        return first == 'P'
+                && (second == GRAYMAP_MAGIC || second == PIXMAP_MAGIC || second == ARBITRARY_MAP_MAGIC);
+    }
+
+    /**
+     * Maps the whole file read-only into memory.
+     *
+     * @param filename The path to the file.
+     * @return The mapped file contents.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    private static MappedByteBuffer map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Netpbm file too large to map: " + filename);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public int getRGB(int row, int col) {
+        return readPixel(mapped(), dataOffset + ((long) row * getWidth() + col) * depth * bytesPerSample);
+    }
+
+    @Override
+    public void copyRow(int row, int col, int length, int[] dst, int dstOffset) {
+        MappedByteBuffer data = mapped();
+        long position = dataOffset + ((long) row * getWidth() + col) * depth * bytesPerSample;
+        int pixelBytes = depth * bytesPerSample;
+        for (int i = 0; i < length; i++, position += pixelBytes) {
+            dst[dstOffset + i] = readPixel(data, position);
+        }
+    }
+
+    /**
+     * Releases the tables of the base class and unmaps the file, freeing the mapping immediately when the
+     * runtime allows it. The image stays usable; the file is mapped again if its pixels are needed. Must not
+     * be called while the image is being converted.
+     */
+    @Override
+    public void release() {
+        super.release();
+        synchronized (this) {
+            MappedByteBuffer mapped = buffer;
+            if (mapped != null) {
+                buffer = null;
+                OffHeapGrid.free(mapped);
+            }
+        }
+    }
+
+    /**
+     * Gets the mapped contents of the file, mapping the file again if it was unmapped by release().
+     *
+     * @return The mapped file contents.
+     * @throws UncheckedIOException if the file can no longer be mapped or its size has changed.
+     */
+    private MappedByteBuffer mapped() {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            synchronized (this) {
+                mapped = buffer;
+                if (mapped == null) {
+                    try {
+                        mapped = map(filename);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (mapped.capacity() != fileSize) {
+                        OffHeapGrid.free(mapped);
+                        throw new UncheckedIOException(new IOException("Netpbm file changed on disk: "
+                                + filename));
+                    }
+                    buffer = mapped;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Converts the pixel whose first sample is at the given position of the file to a packed ARGB value.
+     *
+     * @param data     The mapped file contents.
+     * @param position The offset in the file of the first sample of the pixel.
+     * @return The packed ARGB value of the pixel.
+     */
+    private int readPixel(MappedByteBuffer data, long position) {
+        int index = (int) position;
+        int red = readSample(data, index);
+        int green;
+        int blue;
+        int alpha = MAX_BYTE_SAMPLE;
+        if (depth < 3) {
+            green = red;
+            blue = red;
+            if (depth == 2) {
+                alpha = readSample(data, index + bytesPerSample);
+            }
+        } else {
+            green = readSample(data, index + bytesPerSample);
+            blue = readSample(data, index + 2 * bytesPerSample);
+            if (depth == 4) {
+                alpha = readSample(data, index + 3 * bytesPerSample);
+            }
+        }
+        return alpha << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Reads a sample at the given offset of the file and scales it to the 0-255 range.
+     *
+     * @param data  The mapped file contents.
+     * @param index The offset in the file of the sample.
+     * @return The sample value, between 0 and 255.
+     */
+    private int readSample(MappedByteBuffer data, int index) {
+        int value;
+        if (bytesPerSample == 1) {
+            value = data.get(index) & BYTE_MASK;
+        } else {
+            value = data.getShort(index) & SHORT_MASK;
+        }
+        if (maxValue == MAX_BYTE_SAMPLE) {
+            return value;
+        }
+        return (value * MAX_BYTE_SAMPLE + maxValue / 2) / maxValue;
+    }
+
+    /**
+     * Parser of the text header of a netpbm file.
+     */
+    private static class Header {
+        private final MappedByteBuffer buffer;
+        private final String filename;
+        private int position;
+        private int width;
+        private int height;
+        private int depth;
+        private int maxValue;
+
+        /**
+         * Parses the header of the mapped file.
+         *
+         * @param buffer   The mapped file contents.
+         * @param filename The path to the file, used in error messages.
+         * @throws IOException if the header is malformed or describes an unsupported layout.
+         */
+        Header(MappedByteBuffer buffer, String filename) throws IOException {
+            this.buffer = buffer;
+            this.filename = filename;
+            this.position = 2;
+            char magic = (char) buffer.get(1);
+            if (magic == ARBITRARY_MAP_MAGIC) {
+                parseArbitraryMap();
+            } else {
+                width = readNumber();
+                height = readNumber();
+                maxValue = readNumber();
+                depth = magic == GRAYMAP_MAGIC ? 1 : 3;
+                // A single whitespace character separates the header from the raster.
+                position++;
+            }
+            if (width <= 0 || height <= 0 || depth < 1 || depth > 4 || maxValue <= 0
+                    || maxValue > SHORT_MASK) {
+                throw new IOException("Unsupported netpbm layout: " + filename);
+            }
+            long rasterBytes = (long) width * height * depth * (maxValue > MAX_BYTE_SAMPLE ? 2 : 1);
+            if (position + rasterBytes > buffer.capacity()) {
+                throw new IOException("Truncated netpbm file: " + filename);
+            }
+        }
+
+        /**
+         * Parses the keyword lines of a PAM header, up to and including ENDHDR.
+         *
+         * @throws IOException if the header is malformed.
+         */
+        private void parseArbitraryMap() throws IOException {
+            String token = readToken();
+            while (!token.equals(PAM_END_HEADER)) {
+                switch (token) {
+                    case "WIDTH": width = readNumber(); break;
+                    case "HEIGHT": height = readNumber(); break;
+                    case "DEPTH": depth = readNumber(); break;
+                    case "MAXVAL": maxValue = readNumber(); break;
+                    default: skipLine(); break;
+                }
+                token = readToken();
+            }
+            skipLine();
+        }
+
+        /**
+         * Reads the next decimal number of the header.
+         *
+         * @return The number read.
+         * @throws IOException if the next token is not a number.
+         */
+        private int readNumber() throws IOException {
+            try {
+                return Integer.parseInt(readToken());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed netpbm header: " + filename);
+            }
+        }
+
+        /**
+         * Reads the next whitespace-delimited token of the header, skipping comments.
+         *
+         * @return The token read.
+         * @throws IOException if the header ends before a token is found.
+         */
+        private String readToken() throws IOException {
+            while (position < buffer.capacity()) {
+                char c = (char) buffer.get(position);
+                if (c == '#') {
+                    skipLine();
+                } else if (Character.isWhitespace(c)) {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            StringBuilder token = new StringBuilder();
+            while (position < buffer.capacity() && !Character.isWhitespace((char) buffer.get(position))) {
+                token.append((char) buffer.get(position++));
+            }
+            if (token.length() == 0) {
+                throw new IOException("Malformed netpbm header: " + filename);
+            }
+            return token.toString();
+        }
+
+        /**
+         * Moves past the end of the current header line.
+         */
+        private void skipLine() {
+            while (position < buffer.capacity() && buffer.get(position) != '\n') {
+                position++;
+            }
+            position++;
+        }
+    }
+}
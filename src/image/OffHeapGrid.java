@@ -0,0 +1,196 @@
+package image;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A row-major grid of double values kept outside of the Java heap, in direct ByteBuffers.
+ * Large grids are split into chunks of whole rows, so a grid is not limited to the 2 GB a single buffer can
+ * address. The memory is released explicitly through release(); on runtimes that do not expose a way to free
+ * a direct buffer on demand, it is left for the garbage collector to reclaim. A released grid drops its
+ * buffers, and any later use fails with an IllegalStateException rather than touching freed memory. Direct
+ * memory is bounded by -XX:MaxDirectMemorySize rather than by the heap size.
+ */
+class OffHeapGrid {
+
+    /**
+     * The largest number of bytes held by a single chunk.
+     */
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    /**
+     * The instance of sun.misc.Unsafe, or null if it is not available.
+     */
+    private static final Object UNSAFE;
+
+    /**
+     * The sun.misc.Unsafe.invokeCleaner method, which frees a direct buffer immediately, or null if it is not
+     * available.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available on this runtime; buffers are then reclaimed by the garbage collector.
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Number of values per row.
+     */
+    private final int cols;
+
+    /**
+     * Number of rows held by every chunk but the last.
+     */
+    private final int rowsPerChunk;
+
+    /**
+     * The chunks of the grid, each holding rowsPerChunk consecutive rows, or null once the grid is released.
+     */
+    private ByteBuffer[] chunks;
+
+    /**
+     * Total size of the grid, in bytes.
+     */
+    private final long bytes;
+
+    /**
+     * Allocates a grid of the given size, filled with zeros.
+     *
+     * @param rows The number of rows.
+     * @param cols The number of values per row.
+     */
+    OffHeapGrid(int rows, int cols) {
+        this.cols = cols;
+        long rowBytes = (long) cols * Double.BYTES;
+        this.rowsPerChunk = (int) Math.max(1, Math.min(rows, MAX_CHUNK_BYTES / Math.max(1, rowBytes)));
+        this.chunks = new ByteBuffer[rows == 0 ? 0 : (rows + rowsPerChunk - 1) / rowsPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect((int) (chunkRows * rowBytes))
+                    .order(ByteOrder.nativeOrder());
+        }
+        this.bytes = rows * rowBytes;
+    }
+
+    /**
+     * Gets the double value at the given position.
+     *
+     * @param row The row of the value.
+     * @param col The column of the value.
+     * @return The value.
+     */
+    double getDouble(int row, int col) {
+        return chunk(row).getDouble(index(row, col));
+    }
+
+    /**
+     * Copies a run of values of a row into the given array.
+     *
+     * @param row       The row of the run.
+     * @param col       The first column of the run.
+     * @param length    The number of values to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied value.
+     */
+    void getDoubles(int row, int col, int length, double[] dst, int dstOffset) {
+        ByteBuffer chunk = chunk(row);
+        int index = index(row, col);
+        for (int i = 0; i < length; i++, index += Double.BYTES) {
+            dst[dstOffset + i] = chunk.getDouble(index);
+        }
+    }
+
+    /**
+     * Writes a whole row of double values.
+     *
+     * @param row    The row to write.
+     * @param values The values of the row.
+     */
+    void putDoubleRow(int row, double[] values) {
+        ByteBuffer chunk = chunk(row);
+        int index = index(row, 0);
+        for (int i = 0; i < cols; i++, index += Double.BYTES) {
+            chunk.putDouble(index, values[i]);
+        }
+    }
+
+    /**
+     * Gets the size of the grid.
+     *
+     * @return The size of the grid, in bytes.
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Frees the memory of the grid and drops its buffers. Later use of the grid throws an
+     * IllegalStateException; releasing it again does nothing.
+     */
+    void release() {
+        ByteBuffer[] released = chunks;
+        if (released == null) {
+            return;
+        }
+        chunks = null;
+        for (ByteBuffer chunk : released) {
+            free(chunk);
+        }
+    }
+
+    /**
+     * Frees the memory of a direct or mapped buffer immediately, when the runtime allows it; otherwise the
+     * buffer is left for the garbage collector. The buffer must not be used afterwards.
+     *
+     * @param buffer The buffer to free, which must not be a slice or duplicate of another buffer.
+     */
+    static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                // Leave the buffer to the garbage collector.
+            }
+        }
+    }
+
+    /**
+     * Gets the chunk holding the given row.
+     *
+     * @param row The row.
+     * @return The chunk holding the row.
+     * @throws IllegalStateException if the grid has been released.
+     */
+    private ByteBuffer chunk(int row) {
+        ByteBuffer[] current = chunks;
+        if (current == null) {
+            throw new IllegalStateException("The off-heap grid has been released");
+        }
+        return current[row / rowsPerChunk];
+    }
+
+    /**
+     * Calculates the byte offset of a value within its chunk.
+     *
+     * @param row The row of the value.
+     * @param col The column of the value.
+     * @return The byte offset of the value in its chunk.
+     */
+    private int index(int row, int col) {
+        return ((row % rowsPerChunk) * cols + col) * Double.BYTES;
+    }
+}
@@ -1,13 +1,15 @@
 package image;
 
-import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Represents an image padded with white pixels to achieve a power of two dimensions.
  * This class provides functionality to pad an input image with white pixels until both its width and height
  * are powers of two. This is commonly required for certain image processing algorithms, such as Fourier
  * transforms, which operate more efficiently on images with dimensions that are powers of two.
+ * The padding is virtual: the padded image is a view that remaps coordinates onto the original image and
+ * reads as white outside of it, so no pixels are copied or allocated.
  * Additionally, the class offers methods to create sub-images from the padded image. These sub-images
  * can be useful for dividing the image into smaller parts for parallel processing or other operations.
  */
@@ -15,9 +17,9 @@ import java.util.ArrayList;
 public class PaddingImage {
 
     /**
-     * The color value representing white in RGB format.
+     * The packed ARGB value representing an opaque white pixel.
      */
-    private static final int WHITE_COLOR = 255;
+    private static final int WHITE_RGB = 0xFFFFFFFF;
 
     /**
      * The original image before padding.
@@ -27,13 +29,22 @@ public class PaddingImage {
     /**
      * The height of the padded image.
      */
-    private int height;
-    private int width;
+    private final int height;
 
     /**
-     * The list of sub-images created from the padded image.
+     * The width of the padded image.
      */
-    private final ArrayList<SubImage> subImages;
+    private final int width;
+
+    /**
+     * The number of white rows above the original image.
+     */
+    private final int paddingHeight;
+
+    /**
+     * The number of white columns left of the original image.
+     */
+    private final int paddingWidth;
 
     /**
      * Constructs a PaddingImage object by padding the input image with white pixels.
@@ -41,35 +52,27 @@ public class PaddingImage {
      * @param image The original image to be padded.
      */
     public PaddingImage(Image image) {
-        this.image = imagePadding(image);
-        this.subImages = new ArrayList<>();
+        this(image, updateNumberToPowerOfTwo(image.getWidth()), updateNumberToPowerOfTwo(image.getHeight()),
+                (updateNumberToPowerOfTwo(image.getHeight()) - image.getHeight()) / 2,
+                (updateNumberToPowerOfTwo(image.getWidth()) - image.getWidth()) / 2);
     }
 
     /**
-     * Pads the input image with white pixels to achieve a power of two dimensions.
+     * Constructs a PaddingImage object that places the input image at the given offset on a white canvas of
+     * the given size. Used to view one band of a larger image at its position in the padded whole.
      *
-     * @param image The original image to be padded.
-     * @return The padded image.
-     */
-    private Image imagePadding(Image image) {
-        height = updateNumberToPowerOfTwo(image.getHeight());
-        width = updateNumberToPowerOfTwo(image.getWidth());
-        int paddingHeight = (height - image.getHeight()) / 2;
-        int paddingWidth = (width - image.getWidth()) / 2;
-
-        Color[][] pixelArray = new Color[height][width];
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                if (i < paddingHeight || i >= (height - paddingHeight) || j < paddingWidth ||
-                        j >= (width - paddingWidth)) {
-                    pixelArray[i][j] = new Color(WHITE_COLOR, WHITE_COLOR, WHITE_COLOR);
-                } else {
-                    pixelArray[i][j] = image.getPixel(i - paddingHeight, j - paddingWidth);
-                }
-            }
-        }
-        return new Image(pixelArray, width, height);
+     * @param image         The image to be placed on the canvas.
+     * @param width         The width of the canvas.
+     * @param height        The height of the canvas.
+     * @param paddingHeight The row of the canvas at which the top of the image is placed.
+     * @param paddingWidth  The column of the canvas at which the left of the image is placed.
+     */
+    public PaddingImage(Image image, int width, int height, int paddingHeight, int paddingWidth) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.paddingHeight = paddingHeight;
+        this.paddingWidth = paddingWidth;
     }
 
     /**
@@ -78,7 +81,7 @@ public class PaddingImage {
      * @param number The input number to be updated.
      * @return The updated number, now a power of two.
      */
-    private int updateNumberToPowerOfTwo(int number) {
+    public static int updateNumberToPowerOfTwo(int number) {
         if (!(number != 0 && (number & (number - 1)) == 0)) {
             return (int) Math.pow(2, Math.ceil(Math.log(number) / Math.log(2)));
         }
@@ -103,24 +106,124 @@ public class PaddingImage {
         return width;
     }
 
+    /**
+     * Gets the kernel the luminance of the padded image is computed with, that of the original image.
+     *
+     * @return The luminance kernel.
+     */
+    public LuminanceMode getLuminanceMode() {
+        return image.getLuminanceMode();
+    }
+
+    /**
+     * Retrieves the packed ARGB value of the padded image at the specified row and column.
+     * Coordinates outside of the original image read as white.
+     *
+     * @param row The row in the padded image.
+     * @param col The column in the padded image.
+     * @return The packed ARGB value of the specified pixel.
+     */
+    public int getRGB(int row, int col) {
+        int sourceRow = row - paddingHeight;
+        int sourceCol = col - paddingWidth;
+        if (sourceRow < 0 || sourceRow >= image.getHeight() || sourceCol < 0
+                || sourceCol >= image.getWidth()) {
+            return WHITE_RGB;
+        }
+        return image.getRGB(sourceRow, sourceCol);
+    }
+
+    /**
+     * Copies a horizontal run of the padded image into the given array, filling the parts that fall
+     * outside of the original image with white.
+     *
+     * @param row       The row in the padded image.
+     * @param col       The first column of the run in the padded image.
+     * @param length    The number of pixels to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied pixel.
+     */
+    public void copyRow(int row, int col, int length, int[] dst, int dstOffset) {
+        int sourceRow = row - paddingHeight;
+        int start = Math.max(col, paddingWidth);
+        int end = Math.min(col + length, paddingWidth + image.getWidth());
+        if (sourceRow < 0 || sourceRow >= image.getHeight() || start >= end) {
+            Arrays.fill(dst, dstOffset, dstOffset + length, WHITE_RGB);
+            return;
+        }
+        Arrays.fill(dst, dstOffset, dstOffset + start - col, WHITE_RGB);
+        image.copyRow(sourceRow, start - paddingWidth, end - start, dst, dstOffset + start - col);
+        Arrays.fill(dst, dstOffset + end - col, dstOffset + length, WHITE_RGB);
+    }
+
+    /**
+     * Copies a horizontal run of the luminance plane of the padded image into the given array, filling the
+     * parts that fall outside of the original image with the luminance of white.
+     *
+     * @param row       The row in the padded image.
+     * @param col       The first column of the run in the padded image.
+     * @param length    The number of values to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied value.
+     */
+    public void copyLuminanceRow(int row, int col, int length, double[] dst, int dstOffset) {
+        double whiteLuminance = image.getLuminanceMode().luminance(WHITE_RGB);
+        int sourceRow = row - paddingHeight;
+        int start = Math.max(col, paddingWidth);
+        int end = Math.min(col + length, paddingWidth + image.getWidth());
+        if (sourceRow < 0 || sourceRow >= image.getHeight() || start >= end) {
+            Arrays.fill(dst, dstOffset, dstOffset + length, whiteLuminance);
+            return;
+        }
+        Arrays.fill(dst, dstOffset, dstOffset + start - col, whiteLuminance);
+        image.copyLuminanceRow(sourceRow, start - paddingWidth, end - start, dst, dstOffset + start - col);
+        Arrays.fill(dst, dstOffset + end - col, dstOffset + length, whiteLuminance);
+    }
+
+    /**
+     * Calculates the mean brightness of a rectangle of the padded image, normalized to the range [0, 1].
+     * The part of the rectangle covering the original image is summed by the image (through its summed-area
+     * table, so in O(1) whatever the rectangle size) and the part covering the padding counts as white.
+     *
+     * @param row    The top row of the rectangle in the padded image.
+     * @param col    The left column of the rectangle in the padded image.
+     * @param height The height of the rectangle.
+     * @param width  The width of the rectangle.
+     * @return The mean brightness of the rectangle.
+     */
+    public double getBrightness(int row, int col, int height, int width) {
+        int top = Math.max(row - paddingHeight, 0);
+        int left = Math.max(col - paddingWidth, 0);
+        int bottom = Math.min(row + height - paddingHeight, image.getHeight());
+        int right = Math.min(col + width - paddingWidth, image.getWidth());
+        long area = (long) height * width;
+        LuminanceMode mode = image.getLuminanceMode();
+        double whiteGray = mode.luminance(WHITE_RGB);
+        double sum;
+        if (top < bottom && left < right) {
+            long imageArea = (long) (bottom - top) * (right - left);
+            sum = image.sumLuminance(top, left, bottom - top, right - left) + whiteGray * (area - imageArea);
+        } else {
+            sum = whiteGray * area;
+        }
+        return sum / (area * mode.getMaxLuminance());
+    }
+
     /**
      * Creates sub-images from the padded image for further processing.
+     * Each sub-image is a window over this image, so no pixels are copied; a new list is returned on every
+     * call.
      *
      * @param resolution The resolution of each sub-image.
      * @return The list of sub-images created from the padded image.
      */
     public ArrayList<SubImage> createSubImages(int resolution) {
-        int dimension = image.getWidth() / resolution;
-
-        for (int i = 0; i < image.getHeight(); i += dimension) {
-            for (int j = 0; j < image.getWidth(); j += dimension) {
-                Color[][] pixelArray = new Color[dimension][dimension];
-                for (int x = 0; x < dimension; x++) {
-                    for (int y = 0; y < dimension; y++) {
-                        pixelArray[x][y] = image.getPixel(x + i, y + j);
-                    }
-                }
-                subImages.add(new SubImage(pixelArray, dimension, dimension));
+        int dimension = width / resolution;
+        ArrayList<SubImage> subImages = new ArrayList<>((height / dimension) * resolution);
+
+        for (int i = 0; i < height; i += dimension) {
+            for (int j = 0; j < width; j += dimension) {
+                subImages.add(new SubImage(this, i, j, dimension, dimension));
             }
         }
         return subImages;
@@ -0,0 +1,90 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs work over the rows of a grid in horizontal bands on a ForkJoinPool.
+ * The row range is split in halves recursively until a band is small enough, so idle workers steal the
+ * remaining halves. Every band writes to its own rows only, so the result is the same as a serial run, which
+ * is what happens when no pool is given.
+ */
+public final class ParallelRows {
+
+    /**
+     * Number of bands per worker of the pool, so that uneven bands still keep every worker busy.
+     */
+    private static final int BANDS_PER_WORKER = 4;
+
+    /**
+     * Work done on a band of rows.
+     */
+    public interface Band {
+
+        /**
+         * Processes the rows of a band.
+         *
+         * @param from The first row of the band.
+         * @param to   The row after the last row of the band.
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private ParallelRows() {
+    }
+
+    /**
+     * Processes the rows 0 to rows - 1 in bands, on the given pool or on the calling thread.
+     *
+     * @param pool The pool to run the bands on, or null to process every row on the calling thread.
+     * @param rows The number of rows.
+     * @param band The work done on a band of rows.
+     */
+    public static void forEachBand(ForkJoinPool pool, int rows, Band band) {
+        if (pool == null || pool.getParallelism() == 1 || rows <= 1) {
+            band.run(0, rows);
+            return;
+        }
+        int bandRows = Math.max(1, rows / (pool.getParallelism() * BANDS_PER_WORKER));
+        pool.invoke(new BandTask(band, 0, rows, bandRows));
+    }
+
+    /**
+     * A fork/join task processing a range of rows, split in halves until it is no larger than a band.
+     */
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Band band;
+        private final int from;
+        private final int to;
+        private final int bandRows;
+
+        /**
+         * Constructs a task over a range of rows.
+         *
+         * @param band     The work done on a band of rows.
+         * @param from     The first row of the range.
+         * @param to       The row after the last row of the range.
+         * @param bandRows The largest number of rows processed without splitting.
+         */
+        BandTask(Band band, int from, int to, int bandRows) {
+            this.band = band;
+            this.from = from;
+            this.to = to;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                band.run(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(band, from, middle, bandRows), new BandTask(band, middle, to, bandRows));
+        }
+    }
+}
@@ -4,96 +4,91 @@ import java.awt.*;
 
 /**
  * Represents a sub-image extracted from a larger image.
- * This class inherits from the Image class and adds functionality for calculating and retrieving the
- * brightness of the sub-image.
+ * A sub-image is a lightweight window (row, column, width, height) over a padded image: it holds no pixels
+ * of its own and reads them from its parent on demand. It adds functionality for retrieving the brightness
+ * of the window.
  */
-public class SubImage extends Image {
+public class SubImage {
 
     /**
-     * The weight of the red component in calculating grayscale brightness.
+     * The padded image this sub-image is a window of.
      */
-    private static final double RED_WEIGHT = 0.2126;
+    private final PaddingImage parent;
 
     /**
-     * The weight of the green component in calculating grayscale brightness.
+     * The row in the parent image of the top-left pixel of the sub-image.
      */
-    private static final double GREEN_WEIGHT = 0.7152;
+    private final int row;
 
     /**
-     * The weight of the blue component in calculating grayscale brightness.
+     * The column in the parent image of the top-left pixel of the sub-image.
      */
-    private static final double BLUE_WEIGHT = 0.0722;
+    private final int col;
 
     /**
-     * The maximum value of an RGB color component.
+     * The width of the sub-image.
      */
-    private static final int MAX_RGB_NUM = 255;
+    private final int width;
 
     /**
-     * The brightness of the sub-image, calculated based on grayscale pixel values.
+     * The height of the sub-image.
      */
-    private double brightness;
+    private final int height;
 
     /**
-     * Constructs a SubImage object with the provided pixel array, width, and height.
-     * The brightness of the sub-image is automatically calculated upon construction.
+     * Constructs a SubImage window over the given padded image.
      *
-     * @param pixelArray The pixel array representing the colors of the sub-image.
-     * @param width      The width of the sub-image.
-     * @param height     The height of the sub-image.
+     * @param parent The padded image the sub-image is a window of.
+     * @param row    The row in the parent image of the top-left pixel of the sub-image.
+     * @param col    The column in the parent image of the top-left pixel of the sub-image.
+     * @param width  The width of the sub-image.
+     * @param height The height of the sub-image.
      */
-    public SubImage(Color[][] pixelArray, int width, int height) {
-        super(pixelArray, width, height);
-        calculateSubImageBrightness();
+    public SubImage(PaddingImage parent, int row, int col, int width, int height) {
+        this.parent = parent;
+        this.row = row;
+        this.col = col;
+        this.width = width;
+        this.height = height;
     }
 
     /**
-     * Retrieves the brightness of the sub-image.
+     * Gets the width of the sub-image.
      *
-     * @return The brightness value of the sub-image.
+     * @return The width of the sub-image.
      */
-    public double getBrightness() {
-        return brightness;
+    public int getWidth() {
+        return width;
     }
 
     /**
-     * Calculates the brightness of the sub-image based on its grayscale pixel values.
+     * Gets the height of the sub-image.
+     *
+     * @return The height of the sub-image.
      */
-    private void calculateSubImageBrightness() {
-        double[][] grayPixelArray = createGrayScalePixelArray();
-        double sum = 0;
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                double grayPixelScale = calculateGrayPixel(getPixel(i, j));
-                grayPixelArray[i][j] = grayPixelScale;
-                sum += grayPixelScale;
-            }
-        }
-        brightness = sum / (getHeight() * getWidth() * MAX_RGB_NUM);
+    public int getHeight() {
+        return height;
     }
 
     /**
-     * Creates a 2D array of grayscale pixel values from the sub-image.
+     * Retrieves the Color of the pixel at the specified coordinates of the sub-image.
      *
-     * @return A 2D array representing the grayscale pixel values of the sub-image.
+     * @param x The x-coordinate (row) of the pixel.
+     * @param y The y-coordinate (column) of the pixel.
+     * @return The Color of the specified pixel.
      */
-    private double[][] createGrayScalePixelArray() {
-        double[][] grayPixelArray = new double[getHeight()][getWidth()];
-        for (int i = 0; i < getHeight(); i++) {
-            for (int j = 0; j < getWidth(); j++) {
-                grayPixelArray[i][j] = calculateGrayPixel(getPixel(i, j));
-            }
-        }
-        return grayPixelArray;
+    public Color getPixel(int x, int y) {
+        return new Color(parent.getRGB(row + x, col + y));
     }
 
     /**
-     * Calculates the grayscale pixel value from the given color.
+     * Retrieves the brightness of the sub-image.
+     * The value is read from the summed-area table of the parent image, so it costs O(1) whatever the size
+     * of the sub-image.
      *
-     * @param color The color from which to calculate the grayscale pixel value.
-     * @return The grayscale pixel value calculated from the color.
+     * @return The brightness value of the sub-image.
      */
-    private static double calculateGrayPixel(Color color) {
-        return color.getRed() * RED_WEIGHT + color.getGreen() * GREEN_WEIGHT + color.getBlue() * BLUE_WEIGHT;
+    public double getBrightness() {
+        return parent.getBrightness(row, col, height, width);
     }
 }
@@ -0,0 +1,502 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents an image that is decoded lazily, one fixed-size tile at a time.
+ * Tiles are decoded on demand through ImageReader source regions and kept in a least recently used cache of
+ * bounded size, so only the tiles that a conversion actually touches are ever decoded, and a huge image never
+ * has to fit in memory at once. Formats stored in native tiles (such as tiled TIFF) are read along their own
+ * tile grid, one tile per read. Every other format is split into square tiles of a fixed size; since such
+ * formats can only be decoded sequentially, reading one tile costs as much as reading its whole row of
+ * tiles, so a miss decodes the row in one read and caches all of its tiles.
+ * Unlike the base class, the luminance plane is never materialized: luminance rows are converted from the
+ * cached tiles on request, and rectangle sums are computed from the tiles they cover rather than from a
+ * summed-area table of the whole image. The brightness pyramid is always kept off the heap.
+ */
+public class TiledImage extends Image {
+
+    /**
+     * Side of the square tiles an untiled format is split into.
+     */
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    /**
+     * Default memory budget of the tile cache, in bytes.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * The path to the image file.
+     */
+    private final String filename;
+
+    /**
+     * Width of a tile (tiles in the last column may be narrower).
+     */
+    private final int tileWidth;
+
+    /**
+     * Height of a tile (tiles in the last row may be lower).
+     */
+    private final int tileHeight;
+
+    /**
+     * Number of tiles in a row of tiles.
+     */
+    private final int tilesAcross;
+
+    /**
+     * Whether the tiles follow the native tile grid of the file, rather than being decoded a row of tiles at
+     * a time.
+     */
+    private final boolean nativeTiles;
+
+    /**
+     * Maximal number of tiles kept in the cache.
+     */
+    private final int maxTiles;
+
+    /**
+     * Decoded tiles by index (tile row * tilesAcross + tile column), in access order. Each tile holds its
+     * packed ARGB pixels row by row.
+     */
+    private final LinkedHashMap<Integer, int[]> tiles;
+
+    /**
+     * The tile last read by getRGB, so that reading the pixels of a span one by one looks the tile up once
+     * rather than once per pixel. Volatile so that a holder published by one thread is seen whole by others.
+     */
+    private volatile LastTile lastTile;
+
+    /**
+     * The open input of the file, or null until a tile is first decoded or after release().
+     */
+    private ImageInputStream input;
+
+    /**
+     * The reader decoding tiles from the input, or null when the input is closed.
+     */
+    private ImageReader reader;
+
+    /**
+     * Number of tiles decoded so far, counting tiles decoded again after eviction.
+     */
+    private long decodedTiles;
+
+    /**
+     * Constructs a TiledImage over the given file, with the default tile size and cache budget.
+     *
+     * @param filename The path to the image file.
+     * @throws IOException if the file cannot be opened or its format is not supported.
+     */
+    public TiledImage(String filename) throws IOException {
+        this(filename, DEFAULT_TILE_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Constructs a TiledImage over the given file. Only the header is read; no tile is decoded until its
+     * pixels are requested. The cache always holds at least one full row of tiles, so that sweeping the
+     * image row by row decodes every tile once.
+     *
+     * @param filename   The path to the image file.
+     * @param tileSize   The side of the square tiles an untiled format is split into.
+     * @param cacheBytes The memory budget of the tile cache, in bytes.
+     * @throws IOException if the file cannot be opened or its format is not supported.
+     */
+    public TiledImage(String filename, int tileSize, long cacheBytes) throws IOException {
+        this(filename, openReader(filename), tileSize, cacheBytes);
+    }
+
+    /**
+     * Constructs a TiledImage over a file whose reader is already open.
+     *
+     * @param filename   The path to the image file.
+     * @param reader     The reader, positioned on the file.
+     * @param tileSize   The side of the square tiles an untiled format is split into.
+     * @param cacheBytes The memory budget of the tile cache, in bytes.
+     * @throws IOException if the header of the file cannot be read.
+     */
+    private TiledImage(String filename, ImageReader reader, int tileSize, long cacheBytes)
+            throws IOException {
+        super(reader.getWidth(0), reader.getHeight(0));
+        this.filename = filename;
+        this.reader = reader;
+        this.input = (ImageInputStream) reader.getInput();
+        this.nativeTiles = reader.isImageTiled(0);
+        this.tileWidth = Math.min(nativeTiles ? reader.getTileWidth(0) : tileSize, getWidth());
+        this.tileHeight = Math.min(nativeTiles ? reader.getTileHeight(0) : tileSize, getHeight());
+        this.tilesAcross = (getWidth() + tileWidth - 1) / tileWidth;
+        long tileBytes = (long) Integer.BYTES * tileWidth * tileHeight;
+        this.maxTiles = (int) Math.max(tilesAcross, Math.min(Integer.MAX_VALUE, cacheBytes / tileBytes));
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Checks whether an image should be loaded as tiles rather than decoded in full: when it is stored in
+     * more than one native tile, or when its pixels alone would exceed the given number.
+     *
+     * @param reader    The reader, positioned on the file.
+     * @param maxPixels The largest number of pixels decoded in full.
+     * @return True if the image should be loaded as a TiledImage.
+     * @throws IOException if the header of the file cannot be read.
+     */
+    static boolean shouldTile(ImageReader reader, long maxPixels) throws IOException {
+        long width = reader.getWidth(0);
+        long height = reader.getHeight(0);
+        if (width * height > maxPixels) {
+            return true;
+        }
+        return reader.isImageTiled(0)
+                && (reader.getTileWidth(0) < width || reader.getTileHeight(0) < height);
+    }
+
+    /**
+     * Opens an ImageIO reader on the given file.
+     *
+     * @param filename The path to the image file.
+     * @return The reader, positioned on the file.
+     * @throws IOException if the file cannot be opened or its format is not supported.
+     */
+    private static ImageReader openReader(String filename) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new File(filename));
+        if (input == null) {
+            throw new IOException("Cannot open image file: " + filename);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    /**
+     * Gets the width of a tile.
+     *
+     * @return The width of a tile, in pixels.
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Gets the height of a tile.
+     *
+     * @return The height of a tile, in pixels.
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Gets the number of tiles decoded so far, counting tiles decoded again after being evicted.
+     *
+     * @return The number of decoded tiles.
+     */
+    public synchronized long getDecodedTiles() {
+        return decodedTiles;
+    }
+
+    @Override
+    public int getRGB(int row, int col) {
+        int tileRow = row / tileHeight;
+        int tileCol = col / tileWidth;
+        int key = tileRow * tilesAcross + tileCol;
+        LastTile last = lastTile;
+        if (last == null || last.key != key) {
+            last = new LastTile(key, tile(tileRow, tileCol));
+            lastTile = last;
+        }
+        return last.pixels[(row % tileHeight) * tileWidth(tileCol) + col % tileWidth];
+    }
+
+    @Override
+    public void copyRow(int row, int col, int length, int[] dst, int dstOffset) {
+        int tileRow = row / tileHeight;
+        int rowInTile = row % tileHeight;
+        int end = col + length;
+        while (col < end) {
+            int tileCol = col / tileWidth;
+            int width = tileWidth(tileCol);
+            int start = col - tileCol * tileWidth;
+            int run = Math.min(width - start, end - col);
+            System.arraycopy(tile(tileRow, tileCol), rowInTile * width + start, dst, dstOffset, run);
+            col += run;
+            dstOffset += run;
+        }
+    }
+
+    /**
+     * Copies a horizontal run of luminance values of the image into the given array, converting them from
+     * the cached tiles rather than from a luminance plane of the whole image. Each span of the run that lies
+     * in one tile is converted straight from the tile into the array, with no intermediate copy.
+     *
+     * @param row       The row of the run.
+     * @param col       The first column of the run.
+     * @param length    The number of values to copy.
+     * @param dst       The destination array.
+     * @param dstOffset The index in the destination array of the first copied value.
+     */
+    @Override
+    public void copyLuminanceRow(int row, int col, int length, double[] dst, int dstOffset) {
+        LuminanceMode mode = getLuminanceMode();
+        int tileRow = row / tileHeight;
+        int rowInTile = row % tileHeight;
+        int end = col + length;
+        while (col < end) {
+            int tileCol = col / tileWidth;
+            int width = tileWidth(tileCol);
+            int start = col - tileCol * tileWidth;
+            int run = Math.min(width - start, end - col);
+            mode.toLuminance(tile(tileRow, tileCol), rowInTile * width + start, dst, dstOffset, run);
+            col += run;
+            dstOffset += run;
+        }
+    }
+
+    /**
+     * Keeps the brightness pyramid off the heap whatever the off-heap setting: its first level is built
+     * band by band from luminance rows converted from the tiles and written straight into direct memory, so
+     * neither the pixels nor the levels of a huge image are ever held on the heap.
+     *
+     * @return Always true.
+     */
+    @Override
+    protected boolean isPyramidOffHeap() {
+        return true;
+    }
+
+    @Override
+    public double getLuminance(int row, int col) {
+        return getLuminanceMode().luminance(getRGB(row, col));
+    }
+
+    /**
+     * Calculates the sum of the grayscale values over a rectangle of the image by reading the rows of the
+     * rectangle from the tiles it covers, so only those tiles are decoded. The cost is proportional to the
+     * area of the rectangle; conversions of the whole image go through the brightness pyramid instead.
+     *
+     * @param row    The top row of the rectangle.
+     * @param col    The left column of the rectangle.
+     * @param height The height of the rectangle.
+     * @param width  The width of the rectangle.
+     * @return The sum of the grayscale values of the pixels in the rectangle.
+     */
+    @Override
+    public double sumLuminance(int row, int col, int height, int width) {
+        double[] luminance = new double[width];
+        double sum = 0;
+        for (int i = row; i < row + height; i++) {
+            copyLuminanceRow(i, col, width, luminance, 0);
+            for (int j = 0; j < width; j++) {
+                sum += luminance[j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the sum of the grayscale values over a rectangle with fractional edges by reading the rows
+     * of the rectangle from the tiles it covers, weighting the pixels on its edges by the part of them it
+     * covers.
+     *
+     * @param top    The top edge of the rectangle, between 0 and the height of the image.
+     * @param left   The left edge of the rectangle, between 0 and the width of the image.
+     * @param bottom The bottom edge of the rectangle, no smaller than top.
+     * @param right  The right edge of the rectangle, no smaller than left.
+     * @return The coverage-weighted sum of the grayscale values of the pixels under the rectangle.
+     */
+    @Override
+    public double sumLuminance(double top, double left, double bottom, double right) {
+        int firstRow = (int) top;
+        int lastRow = Math.min((int) Math.ceil(bottom), getHeight());
+        int firstCol = (int) left;
+        int lastCol = Math.min((int) Math.ceil(right), getWidth());
+        if (firstRow >= lastRow || firstCol >= lastCol) {
+            return 0;
+        }
+        int width = lastCol - firstCol;
+        double[] luminance = new double[width];
+        double sum = 0;
+        for (int i = firstRow; i < lastRow; i++) {
+            double rowWeight = Math.min(i + 1, bottom) - Math.max(i, top);
+            copyLuminanceRow(i, firstCol, width, luminance, 0);
+            double rowSum = 0;
+            for (int j = 0; j < width; j++) {
+                int col = firstCol + j;
+                double colWeight = Math.min(col + 1, right) - Math.max(col, left);
+                rowSum += colWeight * luminance[j];
+            }
+            sum += rowWeight * rowSum;
+        }
+        return sum;
+    }
+
+    /**
+     * Releases the cached tiles and closes the file along with the tables of the base class. The image stays
+     * usable; the file is reopened and tiles are decoded again if they are needed.
+     */
+    @Override
+    public void release() {
+        super.release();
+        lastTile = null;
+        synchronized (this) {
+            tiles.clear();
+            if (reader != null) {
+                reader.dispose();
+                reader = null;
+            }
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Nothing was written to the stream, so a failed close loses nothing.
+                }
+                input = null;
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap memory held by the image: the cached tiles, and the packed copy of the pixels and
+     * the tables counted by the base class.
+     *
+     * @return The estimated memory footprint of the image, in bytes.
+     */
+    @Override
+    public long getMemoryFootprint() {
+        long bytes = super.getMemoryFootprint();
+        synchronized (this) {
+            for (int[] tile : tiles.values()) {
+                bytes += (long) Integer.BYTES * tile.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the width of the tiles in the given tile column.
+     *
+     * @param tileCol The tile column.
+     * @return The width of the tiles in that column.
+     */
+    private int tileWidth(int tileCol) {
+        return Math.min(tileWidth, getWidth() - tileCol * tileWidth);
+    }
+
+    /**
+     * Retrieves the pixels of a tile, decoding it (or its row of tiles) and evicting the least recently used
+     * tiles if it is not cached.
+     *
+     * @param tileRow The tile row.
+     * @param tileCol The tile column.
+     * @return The packed ARGB pixels of the tile, stored row by row.
+     * @throws UncheckedIOException if the tile cannot be decoded.
+     */
+    private synchronized int[] tile(int tileRow, int tileCol) {
+        Integer key = tileRow * tilesAcross + tileCol;
+        int[] tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        try {
+            if (nativeTiles) {
+                tile = decodeRegion(tileRow, tileCol, 1)[0];
+                tiles.put(key, tile);
+            } else {
+                int[][] row = decodeRegion(tileRow, 0, tilesAcross);
+                for (int i = 0; i < row.length; i++) {
+                    if (i != tileCol) {
+                        tiles.put(tileRow * tilesAcross + i, row[i]);
+                    }
+                }
+                tile = row[tileCol];
+                tiles.put(key, tile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Iterator<Map.Entry<Integer, int[]>> eldest = tiles.entrySet().iterator();
+        while (tiles.size() > maxTiles) {
+            eldest.next();
+            eldest.remove();
+        }
+        return tile;
+    }
+
+    /**
+     * Decodes a run of adjacent tiles of a tile row from the file in a single ImageReader source region,
+     * reopening the file if it was closed by release().
+     *
+     * @param tileRow The tile row.
+     * @param tileCol The first tile column of the run.
+     * @param count   The number of tiles in the run.
+     * @return The packed ARGB pixels of every tile of the run, each stored row by row.
+     * @throws IOException if the tiles cannot be decoded.
+     */
+    private int[][] decodeRegion(int tileRow, int tileCol, int count) throws IOException {
+        if (reader == null) {
+            reader = openReader(filename);
+            input = (ImageInputStream) reader.getInput();
+        }
+        int top = tileRow * tileHeight;
+        int left = tileCol * tileWidth;
+        int height = Math.min(tileHeight, getHeight() - top);
+        int regionWidth = Math.min(count * tileWidth, getWidth() - left);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(left, top, regionWidth, height));
+        int[] region = decodePixels(reader.read(0, param));
+        int[][] regionTiles = new int[count][];
+        for (int t = 0; t < count; t++) {
+            int tileLeft = t * tileWidth;
+            int width = tileWidth(tileCol + t);
+            int[] tile = new int[width * height];
+            for (int i = 0; i < height; i++) {
+                System.arraycopy(region, i * regionWidth + tileLeft, tile, i * width, width);
+            }
+            regionTiles[t] = tile;
+        }
+        decodedTiles += count;
+        return regionTiles;
+    }
+
+    /**
+     * A tile together with its index, as remembered by getRGB.
+     */
+    private static final class LastTile {
+
+        /**
+         * Index of the tile (tile row * tilesAcross + tile column).
+         */
+        private final int key;
+
+        /**
+         * The packed ARGB pixels of the tile, stored row by row.
+         */
+        private final int[] pixels;
+
+        /**
+         * Constructs a holder of a tile.
+         *
+         * @param key    The index of the tile.
+         * @param pixels The pixels of the tile.
+         */
+        LastTile(int key, int[] pixels) {
+            this.key = key;
+            this.pixels = pixels;
+        }
+    }
+}
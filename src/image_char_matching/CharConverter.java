@@ -27,7 +27,7 @@ public class CharConverter {
     /**
      * Default font name used for character rendering.
      */
-    private static final String FONT_NAME = "Courier New";
+    static final String FONT_NAME = "Courier New";
 
     /**
      * Default pixel resolution used for rendering characters into images.
@@ -48,10 +48,23 @@ public class CharConverter {
      * @return A 2D boolean array representing the binary image of the character.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for (int y = 0; y < DEFAULT_PIXEL_RESOLUTION; y++) {
-            for (int x = 0; x < DEFAULT_PIXEL_RESOLUTION; x++) {
+        return convertToBoolArray(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Converts a given character to a binary "image" represented as a 2D array of booleans, rendered with
+     * the given font and pixel resolution.
+     *
+     * @param c            The character to convert.
+     * @param fontName     The name of the font to use.
+     * @param pixelsPerRow The pixel resolution per row.
+     * @return A 2D boolean array representing the binary image of the character.
+     */
+    public static boolean[][] convertToBoolArray(char c, String fontName, int pixelsPerRow) {
+        BufferedImage img = getBufferedImage(c, fontName, pixelsPerRow);
+        boolean[][] matrix = new boolean[pixelsPerRow][pixelsPerRow];
+        for (int y = 0; y < pixelsPerRow; y++) {
+            for (int x = 0; x < pixelsPerRow; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; // Check if the color is black
             }
         }
@@ -0,0 +1,138 @@
+package image_char_matching;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A process-wide cache of the brightness of rendered glyphs, keyed by font, size and character.
+ * Rendering a glyph goes through AWT and costs far more than the rest of a charset change, so every glyph
+ * is rendered at most once per JVM, however many matchers are built and however often characters are added
+ * and removed. The cache is safe to use from several threads: a glyph asked for by several threads at once
+ * is still rendered only once. It can be pre-warmed, for instance on a background thread at startup, so
+ * that later charset changes render nothing.
+ */
+public final class GlyphBrightnessCache {
+
+    /**
+     * Brightness of every glyph rendered so far, by font, size and character.
+     */
+    private static final ConcurrentHashMap<GlyphKey, Double> BRIGHTNESS = new ConcurrentHashMap<>();
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private GlyphBrightnessCache() {
+    }
+
+    /**
+     * Gets the brightness of a character rendered with the default font and pixel resolution of
+     * CharConverter, rendering it on first use.
+     *
+     * @param c The character.
+     * @return The number of pixels the glyph covers.
+     */
+    public static double getBrightness(char c) {
+        return getBrightness(CharConverter.FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION, c);
+    }
+
+    /**
+     * Gets the brightness of a character rendered with the given font in a square of the given size,
+     * rendering it on first use.
+     *
+     * @param fontName     The name of the font.
+     * @param pixelsPerRow The side of the square the glyph is rendered in, in pixels.
+     * @param c            The character.
+     * @return The number of pixels the glyph covers.
+     */
+    public static double getBrightness(String fontName, int pixelsPerRow, char c) {
+        return BRIGHTNESS.computeIfAbsent(new GlyphKey(fontName, pixelsPerRow, c),
+                key -> countCoveredPixels(CharConverter.convertToBoolArray(c, fontName, pixelsPerRow)));
+    }
+
+    /**
+     * Renders the given characters with the default font and pixel resolution of CharConverter, unless they
+     * are cached already.
+     *
+     * @param chars The characters to render.
+     */
+    public static void prewarm(char[] chars) {
+        prewarm(CharConverter.FONT_NAME, CharConverter.DEFAULT_PIXEL_RESOLUTION, chars);
+    }
+
+    /**
+     * Renders the given characters with the given font in a square of the given size, unless they are
+     * cached already.
+     *
+     * @param fontName     The name of the font.
+     * @param pixelsPerRow The side of the square the glyphs are rendered in, in pixels.
+     * @param chars        The characters to render.
+     */
+    public static void prewarm(String fontName, int pixelsPerRow, char[] chars) {
+        for (char c : chars) {
+            getBrightness(fontName, pixelsPerRow, c);
+        }
+    }
+
+    /**
+     * Gets the number of glyphs cached so far, which is the number of glyphs ever rendered.
+     *
+     * @return The number of cached glyphs.
+     */
+    public static int size() {
+        return BRIGHTNESS.size();
+    }
+
+    /**
+     * Counts the pixels a rendered glyph covers.
+     *
+     * @param glyph The binary image of the glyph.
+     * @return The number of covered pixels.
+     */
+    private static double countCoveredPixels(boolean[][] glyph) {
+        int count = 0;
+        for (boolean[] row : glyph) {
+            for (boolean covered : row) {
+                if (covered) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Identifies a glyph: a character rendered with a font at a size.
+     */
+    private static final class GlyphKey {
+        private final String fontName;
+        private final int pixelsPerRow;
+        private final char c;
+
+        /**
+         * Constructs a GlyphKey.
+         *
+         * @param fontName     The name of the font.
+         * @param pixelsPerRow The side of the square the glyph is rendered in, in pixels.
+         * @param c            The character.
+         */
+        GlyphKey(String fontName, int pixelsPerRow, char c) {
+            this.fontName = fontName;
+            this.pixelsPerRow = pixelsPerRow;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GlyphKey)) {
+                return false;
+            }
+            GlyphKey other = (GlyphKey) o;
+            return c == other.c && pixelsPerRow == other.pixelsPerRow && fontName.equals(other.fontName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fontName, pixelsPerRow, c);
+        }
+    }
+}
@@ -1,19 +1,64 @@
 package image_char_matching;
 
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Arrays;
 
 /**
  * A class for matching characters to image brightness values.
  * This class provides functionality to match characters from a charset to image brightness values.
+ * The charset and the brightness levels are kept in sorted primitive arrays rather than in trees of boxed
+ * values: the characters in ascending order with the brightness of each, and the distinct normalized
+ * brightness levels in ascending order with the lowest character of each. The levels are rebuilt in
+ * O(n log n) when the charset changes and searched by binary search, without allocating. Glyph brightness
+ * comes from the process-wide GlyphBrightnessCache.
+ * Matching goes through a lookup table over the brightness range, rebuilt whenever the charset changes, so
+ * that matching a brightness is a single array access. The table splits [0, 1] into LUT_BUCKETS buckets
+ * and holds, for every bucket, the character the levels match at both of its edges; since the matched
+ * level only moves up as the brightness grows, that character is then the one matched anywhere inside the
+ * bucket. The few buckets whose edges match different characters are matched through the levels, so the
+ * result is always the one of the levels.
  */
 public class SubImgCharMatcher {
     /**
-     * The size used for calculating the brightness of characters.
+     * Number of buckets the brightness range is split into by the lookup table. A power of two, so bucket
+     * edges and the bucket of a brightness are computed without rounding.
      */
-    private final int CHAR_BRIGHT_SIZE = 16;
-    private final TreeMap<Double, TreeSet<Character>> brightnessMap;
-    private final TreeMap<Double, TreeSet<Character>> stageOneBrightness;
+    private static final int LUT_BUCKETS = 4096;
+
+    /**
+     * Lookup table entry marking a bucket that must be matched through the brightness levels.
+     */
+    private static final char MIXED_BUCKET = '\uFFFF';
+
+    /**
+     * The largest ASCII character.
+     */
+    private static final char MAX_ASCII = 127;
+
+    /**
+     * The characters of the charset, in ascending order.
+     */
+    private char[] chars;
+
+    /**
+     * The brightness of every character of the charset, before normalization, parallel to chars.
+     */
+    private double[] charBrightness;
+
+    /**
+     * The distinct brightness levels of the charset, normalized to [0, 1], in ascending order.
+     */
+    private double[] levels;
+
+    /**
+     * The lowest character of every brightness level, parallel to levels.
+     */
+    private char[] representatives;
+
+    /**
+     * The character matched in every bucket of the brightness range, or MIXED_BUCKET. The last entry is the
+     * bucket of brightness 1 alone.
+     */
+    private final char[] lookupTable;
 
 
     /**
@@ -22,106 +67,188 @@ public class SubImgCharMatcher {
      * @param charset the character set to use for matching
      */
     public SubImgCharMatcher(char[] charset) {
-        stageOneBrightness = new TreeMap<>();
-        brightnessMap = new TreeMap<>();
-        for (char c : charset) {
-            stageOneBrightness.computeIfAbsent(calculateBrightness(c), k -> new TreeSet<>()).add(c);
+        char[] sorted = charset.clone();
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        chars = Arrays.copyOf(sorted, size);
+        charBrightness = new double[size];
+        for (int i = 0; i < size; i++) {
+            charBrightness[i] = calculateBrightness(chars[i]);
         }
-        initBrightnessMap();
+        lookupTable = new char[LUT_BUCKETS + 1];
+        initBrightnessLevels();
     }
 
     /**
-     * Initializes the brightness map.
-     * Adjusts the brightness values to a normalized range between 0 and 1.
+     * Initializes the brightness levels.
+     * Adjusts the brightness values to a normalized range between 0 and 1. Characters whose normalized
+     * brightness is equal share a level, represented by the lowest of them.
      */
-        private void initBrightnessMap() {
-            for(Double key : stageOneBrightness.keySet()){
-                for(Character c :stageOneBrightness.get(key) ){
-                    brightnessMap.computeIfAbsent(newCharBrightness(key,
-                            stageOneBrightness.firstEntry().getKey(),stageOneBrightness.lastEntry().getKey()),
-                            k -> new TreeSet<>()).add(c);
-                }
+    private void initBrightnessLevels() {
+        double[] sorted = charBrightness.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        levels = new double[distinct];
+        representatives = new char[distinct];
+        boolean[] represented = new boolean[distinct];
+        for (int i = 0; i < chars.length; i++) {
+            int level = Arrays.binarySearch(sorted, 0, distinct, charBrightness[i]);
+            if (!represented[level]) {
+                representatives[level] = chars[i];
+                represented[level] = true;
+            }
+        }
+        int merged = 0;
+        for (int i = 0; i < distinct; i++) {
+            double level = newCharBrightness(sorted[i], sorted[0], sorted[distinct - 1]);
+            if (merged > 0 && Double.compare(level, levels[merged - 1]) == 0) {
+                representatives[merged - 1] = (char) Math.min(representatives[merged - 1],
+                        representatives[i]);
+            } else {
+                levels[merged] = level;
+                representatives[merged++] = representatives[i];
             }
         }
+        levels = Arrays.copyOf(levels, merged);
+        representatives = Arrays.copyOf(representatives, merged);
+        buildLookupTable();
+    }
 
     /**
-     * Retrieves the character associated with the closest brightness value to the given brightness.
+     * Rebuilds the lookup table from the brightness levels. Every bucket edge is matched once, through the
+     * levels; a bucket gets the character matched at both of its edges, or MIXED_BUCKET when they differ.
+     * A charset whose characters are all equally bright matches its lowest character everywhere.
+     */
+    private void buildLookupTable() {
+        if (levels.length == 0) {
+            Arrays.fill(lookupTable, MIXED_BUCKET);
+            return;
+        }
+        if (levels.length == 1) {
+            Arrays.fill(lookupTable, representatives[0]);
+            return;
+        }
+        char lower = getCharByBrightnessLevels(0);
+        for (int bucket = 0; bucket < LUT_BUCKETS; bucket++) {
+            char upper = getCharByBrightnessLevels((double) (bucket + 1) / LUT_BUCKETS);
+            lookupTable[bucket] = lower == upper ? lower : MIXED_BUCKET;
+            lower = upper;
+        }
+        lookupTable[LUT_BUCKETS] = lower;
+    }
+
+    /**
+     * Retrieves the character associated with the closest brightness value to the given brightness, the
+     * lowest character on a tie. Brightness outside [0, 1] is matched as the nearest end of the range.
      *
      * @param brightness the brightness value to match against
      * @return the character associated with the closest brightness value
      */
     public char getCharByImageBrightness(double brightness) {
-        Double closestUpVal = brightnessMap.ceilingKey(brightness);
-        Double closestDownVal = brightnessMap.floorKey(brightness);
-        TreeSet<Character> closestEntry;
-        TreeSet<Character> closestDownEntry = brightnessMap.get(closestDownVal);
-        TreeSet<Character> closestUpEntry = brightnessMap.get(closestUpVal);
-        if(Math.abs(closestUpVal-brightness) < Math.abs(closestDownVal-brightness)) {
-           closestEntry = closestUpEntry;
+        double clamped = Math.min(Math.max(brightness, 0), 1);
+        char c = lookupTable[(int) (clamped * LUT_BUCKETS)];
+        return c != MIXED_BUCKET ? c : getCharByBrightnessLevels(clamped);
+    }
+
+    /**
+     * Retrieves the character associated with the closest brightness value to the given brightness by
+     * binary search of the brightness levels, the lowest character on a tie.
+     *
+     * @param brightness the brightness value to match against, between 0 and 1
+     * @return the character associated with the closest brightness value
+     */
+    private char getCharByBrightnessLevels(double brightness) {
+        int index = Arrays.binarySearch(levels, brightness);
+        if (index >= 0) {
+            return representatives[index];
         }
-        else if(Math.abs(closestUpVal-brightness) > Math.abs(closestDownVal-brightness)) {
-            closestEntry = closestDownEntry;
+        int up = -index - 1;
+        int down = up - 1;
+        double upDistance = Math.abs(levels[up] - brightness);
+        double downDistance = Math.abs(levels[down] - brightness);
+        if (upDistance < downDistance) {
+            return representatives[up];
         }
-        else {
-            if(closestDownEntry.first() < closestUpEntry.first()) {
-                return closestDownEntry.first();
-            }
-                return closestUpEntry.first();
+        if (upDistance > downDistance) {
+            return representatives[down];
         }
+        return (char) Math.min(representatives[down], representatives[up]);
+    }
 
-        return closestEntry.first();
+    /**
+     * Checks whether every character of the charset is ASCII, so that every match fits an ASCII code.
+     *
+     * @return True if the charset holds ASCII characters only.
+     */
+    public boolean isAscii() {
+        return chars.length == 0 || chars[chars.length - 1] <= MAX_ASCII;
     }
 
     /**
-     * Adds a character to the brightness map.
+     * Adds a character to the charset and rebuilds the brightness levels.
      *
      * @param c the character to add
      */
     public void addChar(char c) {
-        double charBrightness = calculateBrightness(c);
-        stageOneBrightness.computeIfAbsent(charBrightness, k -> new TreeSet<>()).add(c);
-        brightnessMap.clear();
-        initBrightnessMap();
-
+        int index = Arrays.binarySearch(chars, c);
+        if (index >= 0) {
+            return;
+        }
+        int insertion = -index - 1;
+        char[] newChars = new char[chars.length + 1];
+        double[] newBrightness = new double[chars.length + 1];
+        System.arraycopy(chars, 0, newChars, 0, insertion);
+        System.arraycopy(charBrightness, 0, newBrightness, 0, insertion);
+        newChars[insertion] = c;
+        newBrightness[insertion] = calculateBrightness(c);
+        System.arraycopy(chars, insertion, newChars, insertion + 1, chars.length - insertion);
+        System.arraycopy(charBrightness, insertion, newBrightness, insertion + 1, chars.length - insertion);
+        chars = newChars;
+        charBrightness = newBrightness;
+        initBrightnessLevels();
     }
 
     /**
-     * Removes a character from the brightness map.
+     * Removes a character from the charset and rebuilds the brightness levels. The brightness of the
+     * character is already known, so its glyph is not rendered again.
      *
      * @param c the character to remove
      */
     public void removeChar(char c) {
-        double charBrightness = calculateBrightness(c);
-        stageOneBrightness.computeIfPresent(charBrightness, (key, set) -> {
-            set.remove(c);
-            if (set.isEmpty()) {
-                return null; // Remove the entry if the set is empty
-            }
-            return set;
-        });
-        brightnessMap.clear();
-        initBrightnessMap();
-
+        int index = Arrays.binarySearch(chars, c);
+        if (index < 0) {
+            return;
+        }
+        char[] newChars = new char[chars.length - 1];
+        double[] newBrightness = new double[chars.length - 1];
+        System.arraycopy(chars, 0, newChars, 0, index);
+        System.arraycopy(charBrightness, 0, newBrightness, 0, index);
+        System.arraycopy(chars, index + 1, newChars, index, chars.length - index - 1);
+        System.arraycopy(charBrightness, index + 1, newBrightness, index, chars.length - index - 1);
+        chars = newChars;
+        charBrightness = newBrightness;
+        initBrightnessLevels();
     }
 
     /**
-     * Calculates the brightness value for a given character.
+     * Calculates the brightness value for a given character: the number of pixels its glyph covers, read
+     * from the process-wide glyph cache so that no glyph is rendered twice.
      *
      * @param c the character to calculate brightness for
      * @return the brightness value
      */
     private double calculateBrightness(char c) {
-        boolean[][] charBrightness;
-        int countTrue = 0;
-        charBrightness = CharConverter.convertToBoolArray(c);
-        for (boolean[] brightness : charBrightness) {
-            for (boolean b : brightness) {
-                if (b) {
-                    countTrue += 1;
-                }
-            }
-        }
-        return ((double) countTrue / CHAR_BRIGHT_SIZE * CHAR_BRIGHT_SIZE);
+        return GlyphBrightnessCache.getBrightness(c);
     }
 
     /**
@@ -0,0 +1,180 @@
+package ascii_art;
+
+import ascii_output.AsciiArt;
+import image.CellGrid;
+import image.Image;
+import image.LuminanceMode;
+import image.PaddingImage;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Shape and value test of the cell grid of AsciiArtAlgorithm on tall, wide and square images, at every
+ * resolution the padded image allows. The art must have one row per row of cells of the padded image and
+ * resolution columns; every cell must hold the brightness of the pixels under it, averaged by brute force,
+ * and exactly the character matched to that average, with or without a pool and with the tables on or off
+ * the heap. The FAST luminance kernel must give the same character as that average in every cell, with no
+ * fallback to EXACT. Runs as a self-checking
+ * main: it prints a summary and throws an AssertionError on the first failure.
+ */
+public class AsciiArtAlgorithmTest {
+
+    /**
+     * Seed of the random pixels, fixed so that a failure can be reproduced.
+     */
+    private static final long SEED = 16;
+
+    /**
+     * Sizes of the images tested, as width and height: tall, wide and square.
+     */
+    private static final int[][] SIZES = {{300, 1000}, {1000, 300}, {500, 500}};
+
+    /**
+     * Largest difference allowed between the brightness of a cell and its brute-force average: the rounding
+     * of adding the same double values in another order.
+     */
+    private static final double ROUNDING = 1e-12;
+
+    /**
+     * The maximum value of an RGB color component.
+     */
+    private static final double MAX_RGB_NUM = 255;
+
+    /**
+     * Number of threads of the pool the algorithm is also run on.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * The charset the cells are matched with.
+     */
+    private static final char[] CHARSET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+
+    /**
+     * Runs the test.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        SubImgCharMatcher matcher = new SubImgCharMatcher(CHARSET);
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        int grids = 0;
+        try {
+            for (int[] size : SIZES) {
+                int[] pixels = randomPixels(size[0] * size[1], random);
+                Image image = new Image(pixels, size[0], size[1]);
+                Image fastImage = new Image(pixels, size[0], size[1]);
+                fastImage.setLuminanceMode(LuminanceMode.FAST);
+                Image offHeapImage = new Image(pixels, size[0], size[1]);
+                offHeapImage.setOffHeap(true);
+                PaddingImage padded = new PaddingImage(image);
+                int minResolution = Math.max(1, padded.getWidth() / padded.getHeight());
+                for (int resolution = minResolution; resolution <= padded.getWidth(); resolution *= 2) {
+                    checkGrid(image, fastImage, offHeapImage, padded, resolution, matcher, pool);
+                    grids++;
+                }
+                offHeapImage.release();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("AsciiArtAlgorithmTest: " + grids + " grids passed");
+    }
+
+    /**
+     * Builds random opaque pixels.
+     *
+     * @param count  The number of pixels.
+     * @param random The source of randomness.
+     * @return The packed ARGB pixels.
+     */
+    private static int[] randomPixels(int count, Random random) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /**
+     * Checks the shape and every cell of the brightness grid and of the art at one resolution.
+     *
+     * @param image        The image.
+     * @param fastImage    The same pixels, converted with the FAST kernel.
+     * @param offHeapImage The same pixels, with the tables kept off the heap.
+     * @param padded       The image padded to power of two dimensions.
+     * @param resolution   The number of characters per row.
+     * @param matcher      The matcher of the charset.
+     * @param pool         The pool to run the algorithm on as well.
+     * @throws AssertionError if a shape or a cell is wrong.
+     */
+    private static void checkGrid(Image image, Image fastImage, Image offHeapImage, PaddingImage padded,
+                                  int resolution, SubImgCharMatcher matcher, ForkJoinPool pool) {
+        int cellSize = padded.getWidth() / resolution;
+        int rows = padded.getHeight() / cellSize;
+        String where = image.getWidth() + "x" + image.getHeight() + " at resolution " + resolution;
+        CellGrid grid = new AsciiArtAlgorithm(image, resolution, matcher).getBrightnessGrid();
+        AsciiArt art = new AsciiArtAlgorithm(image, resolution, matcher).run();
+        AsciiArt pooledArt = new AsciiArtAlgorithm(image, resolution, matcher, pool).run();
+        AsciiArt fastArt = new AsciiArtAlgorithm(fastImage, resolution, matcher).run();
+        AsciiArt offHeapArt = new AsciiArtAlgorithm(offHeapImage, resolution, matcher, pool).run();
+        check(grid.getRows() == rows && grid.getCols() == resolution, where + ": grid is "
+                + grid.getRows() + "x" + grid.getCols() + " instead of " + rows + "x" + resolution);
+        check(art.getRows() == rows && art.getCols() == resolution, where + ": art is "
+                + art.getRows() + "x" + art.getCols() + " instead of " + rows + "x" + resolution);
+        check(pooledArt.getRows() == rows && pooledArt.getCols() == resolution, where + ": pooled art is "
+                + pooledArt.getRows() + "x" + pooledArt.getCols() + " instead of " + rows + "x" + resolution);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < resolution; col++) {
+                String cell = where + ", cell (" + row + ", " + col + ")";
+                double expected = averageBrightness(padded, row * cellSize, col * cellSize, cellSize);
+                check(Math.abs(grid.get(row, col) - expected) <= ROUNDING, cell + ": brightness "
+                        + grid.get(row, col) + " instead of " + expected);
+                char c = matcher.getCharByImageBrightness(expected);
+                check(art.get(row, col) == c, cell + ": '" + art.get(row, col) + "' instead of '" + c + "'");
+                check(pooledArt.get(row, col) == c, cell + ": pooled '" + pooledArt.get(row, col)
+                        + "' instead of '" + c + "'");
+                check(fastArt.get(row, col) == c, cell + ": FAST '" + fastArt.get(row, col)
+                        + "' instead of '" + c + "'");
+                check(offHeapArt.get(row, col) == c, cell + ": off-heap '" + offHeapArt.get(row, col)
+                        + "' instead of '" + c + "'");
+            }
+        }
+    }
+
+    /**
+     * Averages the brightness of a square of the padded image pixel by pixel, in double precision and row by
+     * row, as the conversion originally computed every sub-image.
+     *
+     * @param padded   The padded image.
+     * @param top      The top row of the square.
+     * @param left     The left column of the square.
+     * @param cellSize The side of the square.
+     * @return The mean brightness of the square, between 0 and 1.
+     */
+    private static double averageBrightness(PaddingImage padded, int top, int left, int cellSize) {
+        double sum = 0;
+        for (int row = top; row < top + cellSize; row++) {
+            for (int col = left; col < left + cellSize; col++) {
+                sum += LuminanceMode.exactLuminance(padded.getRGB(row, col));
+            }
+        }
+        return sum / ((double) cellSize * cellSize * MAX_RGB_NUM);
+    }
+
+    /**
+     * Throws an AssertionError with the given message unless the condition holds.
+     *
+     * @param condition The condition.
+     * @param message   The message of the error.
+     * @throws AssertionError if the condition does not hold.
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
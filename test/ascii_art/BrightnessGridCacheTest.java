@@ -0,0 +1,113 @@
+package ascii_art;
+
+import image.CellGrid;
+import image.Image;
+import image.LuminanceMode;
+
+import java.awt.Rectangle;
+
+/**
+ * Reuse and invalidation test of BrightnessGridCache. Asking again with the same image, crop, resolution,
+ * padding and kernel must return the cached grid without computing it; changing any one of them, the
+ * off-heap setting of the image or the image itself must compute a new grid, and clearing the cache must
+ * too. Runs as a self-checking main: it prints a summary and throws an AssertionError on the first failure.
+ */
+public class BrightnessGridCacheTest {
+
+    /**
+     * Side of the images tested.
+     */
+    private static final int SIZE = 64;
+
+    /**
+     * Resolution the grids are asked for.
+     */
+    private static final int RESOLUTION = 16;
+
+    /**
+     * Region the conversion is cropped to.
+     */
+    private static final Rectangle CROP = new Rectangle(0, 0, 32, 32);
+
+    /**
+     * Number of checks passed so far.
+     */
+    private static int checks;
+
+    /**
+     * Runs the test.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        BrightnessGridCache cache = new BrightnessGridCache();
+        Image image = new Image(new int[SIZE * SIZE], SIZE, SIZE);
+        Image other = new Image(new int[SIZE * SIZE], SIZE, SIZE);
+
+        CellGrid first = request(cache, image, null, RESOLUTION, true, 1);
+        check(request(cache, image, null, RESOLUTION, true, 0) == first, "same key: grid not reused");
+        check(request(cache, image, null, RESOLUTION * 2, true, 1) != first, "resolution: grid reused");
+        request(cache, image, null, RESOLUTION, true, 1);
+        request(cache, image, null, RESOLUTION, false, 1);
+        request(cache, image, null, RESOLUTION, true, 1);
+
+        image.setLuminanceMode(LuminanceMode.FAST);
+        request(cache, image, null, RESOLUTION, true, 1);
+        image.setLuminanceMode(LuminanceMode.EXACT);
+        request(cache, image, null, RESOLUTION, true, 1);
+        image.setOffHeap(true);
+        request(cache, image, null, RESOLUTION, true, 1);
+        image.setOffHeap(false);
+        request(cache, image, null, RESOLUTION, true, 1);
+
+        request(cache, image, CROP, RESOLUTION, true, 1);
+        request(cache, image, new Rectangle(CROP), RESOLUTION, true, 0);
+        Rectangle moved = new Rectangle(CROP.x + 1, CROP.y, CROP.width, CROP.height);
+        request(cache, image, moved, RESOLUTION, true, 1);
+        request(cache, image, null, RESOLUTION, true, 1);
+
+        request(cache, other, null, RESOLUTION, true, 1);
+        request(cache, image, null, RESOLUTION, true, 1);
+        cache.clear();
+        request(cache, image, null, RESOLUTION, true, 1);
+        System.out.println("BrightnessGridCacheTest: " + checks + " checks passed");
+    }
+
+    /**
+     * Asks the cache for a grid and checks how many grids the request computed.
+     *
+     * @param cache      The cache.
+     * @param image      The image.
+     * @param crop       The region of the image, or null for the whole image.
+     * @param resolution The number of characters per row.
+     * @param padded     Whether the image is padded.
+     * @param computed   The number of grids the request must compute: 0 to reuse the cached one, or 1.
+     * @return The grid returned by the cache.
+     * @throws AssertionError if the request computed another number of grids.
+     */
+    private static CellGrid request(BrightnessGridCache cache, Image image, Rectangle crop, int resolution,
+                                    boolean padded, int computed) {
+        long misses = cache.getMisses();
+        CellGrid grid = cache.get(image, crop, resolution, padded,
+                () -> new CellGrid(1, resolution, new double[resolution]));
+        check(cache.getMisses() - misses == computed, "resolution " + resolution + ", padded " + padded
+                + ", crop " + crop + ", kernel " + image.getLuminanceMode() + ", off-heap "
+                + image.isOffHeap() + ": " + (cache.getMisses() - misses) + " grids computed instead of "
+                + computed);
+        return grid;
+    }
+
+    /**
+     * Throws an AssertionError with the given message unless the condition holds.
+     *
+     * @param condition The condition.
+     * @param message   The message of the error.
+     * @throws AssertionError if the condition does not hold.
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+        checks++;
+    }
+}
@@ -0,0 +1,306 @@
+package image_char_matching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Property test of SubImgCharMatcher against the original TreeMap implementation, which it replaced.
+ * Random charsets are built, edited with addChar and removeChar, and probed at random brightness values,
+ * at the edges of the lookup table buckets and at the midpoints between brightness levels, where ties are
+ * broken; both matchers must return the same character for every probe. Runs as a self-checking main:
+ * it prints a summary and throws an AssertionError on the first mismatch.
+ */
+public class SubImgCharMatcherTest {
+
+    /**
+     * Seed of the random charsets and probes, fixed so that a failure can be reproduced.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * Number of random charsets tested.
+     */
+    private static final int TRIALS = 200;
+
+    /**
+     * Largest number of characters drawn for a charset.
+     */
+    private static final int MAX_CHARSET_SIZE = 40;
+
+    /**
+     * Number of addChar or removeChar edits applied to every charset.
+     */
+    private static final int EDITS = 4;
+
+    /**
+     * Number of random brightness values probed per charset.
+     */
+    private static final int RANDOM_PROBES = 5000;
+
+    /**
+     * Number of buckets of the lookup table of SubImgCharMatcher, whose edges are probed.
+     */
+    private static final int LUT_BUCKETS = 4096;
+
+    /**
+     * First printable ASCII character.
+     */
+    private static final char FIRST_PRINTABLE = 32;
+
+    /**
+     * Number of printable ASCII characters.
+     */
+    private static final int PRINTABLE_COUNT = 95;
+
+    /**
+     * Runs the test.
+     *
+     * @param args Unused.
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        long checks = 0;
+        for (int trial = 0; trial < TRIALS; trial++) {
+            char[] charset = new char[1 + random.nextInt(MAX_CHARSET_SIZE)];
+            for (int i = 0; i < charset.length; i++) {
+                charset[i] = randomPrintable(random);
+            }
+            SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+            TreeMapMatcher reference = new TreeMapMatcher(charset);
+            checks += compare(matcher, reference, random);
+            for (int edit = 0; edit < EDITS; edit++) {
+                char c = randomPrintable(random);
+                if (random.nextBoolean()) {
+                    matcher.addChar(c);
+                    reference.addChar(c);
+                } else if (reference.size() > 1) {
+                    matcher.removeChar(c);
+                    reference.removeChar(c);
+                }
+                checks += compare(matcher, reference, random);
+            }
+        }
+        System.out.println("SubImgCharMatcherTest: " + checks + " checks passed");
+    }
+
+    /**
+     * Draws a printable ASCII character.
+     *
+     * @param random The source of randomness.
+     * @return The character.
+     */
+    private static char randomPrintable(Random random) {
+        return (char) (FIRST_PRINTABLE + random.nextInt(PRINTABLE_COUNT));
+    }
+
+    /**
+     * Probes both matchers over the range [0, 1] and checks that they agree.
+     *
+     * @param matcher   The matcher under test.
+     * @param reference The reference matcher, with the same charset.
+     * @param random    The source of randomness.
+     * @return The number of probes checked.
+     * @throws AssertionError if the matchers disagree on a probe.
+     */
+    private static long compare(SubImgCharMatcher matcher, TreeMapMatcher reference, Random random) {
+        List<Double> probes = new ArrayList<>();
+        for (int i = 0; i < RANDOM_PROBES; i++) {
+            probes.add(random.nextDouble());
+            probes.add((double) random.nextFloat());
+        }
+        for (int bucket = 0; bucket <= LUT_BUCKETS; bucket++) {
+            addNeighbourhood(probes, (double) bucket / LUT_BUCKETS);
+        }
+        Double previous = null;
+        for (double level : reference.levels()) {
+            addNeighbourhood(probes, level);
+            if (previous != null) {
+                addNeighbourhood(probes, (previous + level) / 2);
+            }
+            previous = level;
+        }
+        long checks = 0;
+        for (double brightness : probes) {
+            if (brightness < 0 || brightness > 1) {
+                continue;
+            }
+            char expected = reference.getCharByImageBrightness(brightness);
+            char actual = matcher.getCharByImageBrightness(brightness);
+            if (actual != expected) {
+                throw new AssertionError("Brightness " + brightness + " matched '" + actual + "' instead of '"
+                        + expected + "' for charset " + reference.chars());
+            }
+            checks++;
+        }
+        return checks;
+    }
+
+    /**
+     * Adds a brightness value and its two floating-point neighbours to the probes.
+     *
+     * @param probes     The probes.
+     * @param brightness The brightness value.
+     */
+    private static void addNeighbourhood(List<Double> probes, double brightness) {
+        probes.add(brightness);
+        probes.add(Math.nextUp(brightness));
+        probes.add(Math.nextDown(brightness));
+    }
+
+    /**
+     * The original matcher: characters grouped by brightness in a TreeMap, with the normalized levels in a
+     * second TreeMap searched by floor and ceiling keys on every match.
+     */
+    private static class TreeMapMatcher {
+
+        /**
+         * The size used for calculating the brightness of characters.
+         */
+        private static final int CHAR_BRIGHT_SIZE = 16;
+
+        /**
+         * The characters, by their raw brightness.
+         */
+        private final TreeMap<Double, TreeSet<Character>> stageOneBrightness = new TreeMap<>();
+
+        /**
+         * The characters, by their brightness normalized to [0, 1].
+         */
+        private final TreeMap<Double, TreeSet<Character>> brightnessMap = new TreeMap<>();
+
+        /**
+         * Constructs a TreeMapMatcher with the given charset.
+         *
+         * @param charset The characters to match.
+         */
+        TreeMapMatcher(char[] charset) {
+            for (char c : charset) {
+                stageOneBrightness.computeIfAbsent(calculateBrightness(c), k -> new TreeSet<>()).add(c);
+            }
+            initBrightnessMap();
+        }
+
+        /**
+         * Normalizes the brightness of every character to [0, 1].
+         */
+        private void initBrightnessMap() {
+            brightnessMap.clear();
+            double min = stageOneBrightness.firstKey();
+            double max = stageOneBrightness.lastKey();
+            for (Map.Entry<Double, TreeSet<Character>> entry : stageOneBrightness.entrySet()) {
+                double level = (entry.getKey() - min) / (max - min);
+                brightnessMap.computeIfAbsent(level, k -> new TreeSet<>()).addAll(entry.getValue());
+            }
+        }
+
+        /**
+         * Retrieves the character with the closest brightness, the lowest character on a tie. The original
+         * threw when every character is equally bright (its only level is then NaN); here, as in
+         * SubImgCharMatcher, the lowest character is matched.
+         *
+         * @param brightness The brightness, between 0 and 1.
+         * @return The matched character.
+         */
+        char getCharByImageBrightness(double brightness) {
+            Double up = brightnessMap.ceilingKey(brightness);
+            Double down = brightnessMap.floorKey(brightness);
+            if (up == null) {
+                return brightnessMap.get(down).first();
+            }
+            if (down == null) {
+                return brightnessMap.get(up).first();
+            }
+            double upDistance = Math.abs(up - brightness);
+            double downDistance = Math.abs(down - brightness);
+            if (upDistance < downDistance) {
+                return brightnessMap.get(up).first();
+            }
+            if (upDistance > downDistance) {
+                return brightnessMap.get(down).first();
+            }
+            return (char) Math.min(brightnessMap.get(down).first(), brightnessMap.get(up).first());
+        }
+
+        /**
+         * Adds a character.
+         *
+         * @param c The character.
+         */
+        void addChar(char c) {
+            stageOneBrightness.computeIfAbsent(calculateBrightness(c), k -> new TreeSet<>()).add(c);
+            initBrightnessMap();
+        }
+
+        /**
+         * Removes a character.
+         *
+         * @param c The character.
+         */
+        void removeChar(char c) {
+            stageOneBrightness.computeIfPresent(calculateBrightness(c), (key, set) -> {
+                set.remove(c);
+                return set.isEmpty() ? null : set;
+            });
+            initBrightnessMap();
+        }
+
+        /**
+         * Gets the number of characters.
+         *
+         * @return The number of characters.
+         */
+        int size() {
+            int size = 0;
+            for (TreeSet<Character> set : stageOneBrightness.values()) {
+                size += set.size();
+            }
+            return size;
+        }
+
+        /**
+         * Gets the normalized brightness levels, in increasing order.
+         *
+         * @return The levels.
+         */
+        Iterable<Double> levels() {
+            return brightnessMap.keySet();
+        }
+
+        /**
+         * Gets the characters, for failure messages.
+         *
+         * @return The characters, in order of brightness.
+         */
+        String chars() {
+            StringBuilder chars = new StringBuilder();
+            for (TreeSet<Character> set : stageOneBrightness.values()) {
+                for (char c : set) {
+                    chars.append(c);
+                }
+            }
+            return chars.toString();
+        }
+
+        /**
+         * Calculates the brightness of a character as the number of pixels its glyph covers.
+         *
+         * @param c The character.
+         * @return The brightness.
+         */
+        private static double calculateBrightness(char c) {
+            int countTrue = 0;
+            for (boolean[] row : CharConverter.convertToBoolArray(c)) {
+                for (boolean covered : row) {
+                    if (covered) {
+                        countTrue++;
+                    }
+                }
+            }
+            return (double) countTrue / CHAR_BRIGHT_SIZE * CHAR_BRIGHT_SIZE;
+        }
+    }
+}